@@ -1,6 +1,65 @@
 package org.johnnei.utils;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 public class ThreadUtils {
+	
+	/**
+	 * <code>Thread.ofVirtual()</code> or <code>null</code> when the JVM doesn't support virtual threads
+	 */
+	private static final Method OF_VIRTUAL;
+	
+	/**
+	 * <code>Thread.Builder.name(String)</code>
+	 */
+	private static final Method BUILDER_NAME;
+	
+	/**
+	 * <code>Thread.Builder.start(Runnable)</code>
+	 */
+	private static final Method BUILDER_START;
+	
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderStart = null;
+		try {
+			// Virtual threads are only available since Java 21
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builderClass.getMethod("name", String.class);
+			builderStart = builderClass.getMethod("start", Runnable.class);
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_START = builderStart;
+	}
+	
+	/**
+	 * Starts the runnable on a virtual thread when the JVM supports them, otherwise on a new daemon thread
+	 * 
+	 * @param runnable The task to run
+	 * @param name The name of the thread
+	 * @return The started thread
+	 */
+	public static Thread startVirtualThread(Runnable runnable, String name) {
+		if (OF_VIRTUAL != null) {
+			try {
+				Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+				return (Thread) BUILDER_START.invoke(builder, runnable);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// Fall through to a platform thread
+			}
+		}
+		
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
 
 	public static void sleep(int ms) {
 		if (ms <= 0)
@@ -27,6 +27,21 @@ public class JavaTorrent extends Thread {
 		Config.getConfig().setDefault("download-output_folder", ".\\");
 		Config.getConfig().setDefault("download-port", 6881);
 		Config.getConfig().setDefault("general-show_all_peers", false);
+		Config.getConfig().setDefault("upload-zero_copy", true);
+		Config.getConfig().setDefault("peer-io_threads", 0);
+		Config.getConfig().setDefault("peer-io_affinity", "torrent");
+		Config.getConfig().setDefault("peer-io_mode", "selector");
+		Config.getConfig().setDefault("download-max_rate", 0);
+		Config.getConfig().setDefault("upload-max_rate", 0);
+		Config.getConfig().setDefault("download-max_torrent_rate", 0);
+		Config.getConfig().setDefault("upload-max_torrent_rate", 0);
+		Config.getConfig().setDefault("download-max_peer_rate", 0);
+		Config.getConfig().setDefault("upload-max_peer_rate", 0);
+		Config.getConfig().setDefault("disk-io_threads", 4);
+		Config.getConfig().setDefault("disk-storage", "file");
+		Config.getConfig().setDefault("disk-cache_size", 32);
+		Config.getConfig().setDefault("disk-read_cache_size", 16);
+		Config.getConfig().setDefault("disk-read_ahead", 0);
 	}
 
 	public static void main(String[] args) {
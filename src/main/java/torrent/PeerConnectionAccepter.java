@@ -1,9 +1,18 @@
 package torrent;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.johnnei.utils.ConsoleLogger;
 import org.johnnei.utils.ThreadUtils;
 import org.johnnei.utils.config.Config;
 
@@ -11,61 +20,256 @@ import torrent.download.Torrent;
 import torrent.download.peer.Peer;
 import torrent.download.tracker.TrackerManager;
 import torrent.network.BitTorrentSocket;
+import torrent.network.PeerIoMode;
+import torrent.network.protocol.TcpChannelSocket;
 import torrent.network.protocol.TcpSocket;
 import torrent.protocol.BitTorrentHandshake;
 import torrent.protocol.BitTorrentUtil;
 import torrent.util.StringUtil;
 
+/**
+ * Accepts the incoming connections and reads their handshakes.<br/>
+ * In the selector mode the accepting and all pending handshakes are driven by a single {@link Selector}, in the
+ * threaded mode every accepted connection gets its own thread.
+ */
 public class PeerConnectionAccepter extends Thread {
 
-	private ServerSocket serverSocket;
-	
+	/**
+	 * The maximum time in milliseconds to wait for the handshake of the peer
+	 */
+	private static final int HANDSHAKE_TIMEOUT = 5000;
+
+	/**
+	 * The maximum time in milliseconds between two timeout checks
+	 */
+	private static final int TIMEOUT_CHECK_INTERVAL = 250;
+
+	private ServerSocketChannel serverSocket;
+
 	private TorrentManager torrentManager;
-	
+
 	private TrackerManager trackerManager;
 
+	/**
+	 * The way in which the peer input/output is handled
+	 */
+	private PeerIoMode ioMode;
+
+	private Selector selector;
+
+	/**
+	 * The accepted connections of which the handshake has not yet been received
+	 */
+	private LinkedList<PendingHandshake> pendingHandshakes;
+
+	private Logger log;
+
 	public PeerConnectionAccepter(TorrentManager manager, TrackerManager trackerManager) throws IOException {
 		super("Peer connector");
 		setDaemon(true);
 		this.torrentManager = manager;
 		this.trackerManager = trackerManager;
-		serverSocket = new ServerSocket(Config.getConfig().getInt("download-port"));
+		ioMode = PeerIoMode.getConfigured();
+		pendingHandshakes = new LinkedList<>();
+		log = ConsoleLogger.createLogger("PeerAccepter", Level.INFO);
+		serverSocket = ServerSocketChannel.open();
+		serverSocket.bind(new InetSocketAddress(Config.getConfig().getInt("download-port")));
+
+		if (ioMode == PeerIoMode.Selector) {
+			selector = Selector.open();
+			serverSocket.configureBlocking(false);
+			serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+		}
 	}
 
 	public void run() {
+		if (ioMode == PeerIoMode.Threaded) {
+			acceptOnThreads();
+			return;
+		}
+
 		while (true) {
 			try {
-				Socket tcpSocket = (Socket) serverSocket.accept();
-				
-				BitTorrentSocket peerSocket = new BitTorrentSocket(new TcpSocket(tcpSocket));
-				
-				long handshakeStart = System.currentTimeMillis();
-				while (!peerSocket.canReadMessage() && (System.currentTimeMillis() - handshakeStart) < 5000) {
-					ThreadUtils.sleep(10);
+				selector.select(pendingHandshakes.isEmpty() ? 0 : TIMEOUT_CHECK_INTERVAL);
+			} catch (IOException e) {
+				log.warning(String.format("Failed to select incoming connections: %s", e.getMessage()));
+				continue;
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				try {
+					if (key.isAcceptable()) {
+						acceptConnections();
+					} else if (key.isReadable()) {
+						onReadable((PendingHandshake) key.attachment());
+					}
+				} catch (CancelledKeyException e) {
+					// Connection got closed while processing it
 				}
-				if (!peerSocket.canReadMessage()) {
-					peerSocket.close();
-					continue;
+			}
+
+			checkTimeouts();
+		}
+	}
+
+	/**
+	 * Accepts all pending connections and waits for their handshake
+	 */
+	private void acceptConnections() {
+		while (true) {
+			SocketChannel tcpChannel;
+			try {
+				tcpChannel = serverSocket.accept();
+			} catch (IOException e) {
+				log.warning(String.format("Failed to accept connection: %s", e.getMessage()));
+				return;
+			}
+
+			if (tcpChannel == null) {
+				return;
+			}
+
+			PendingHandshake handshake = new PendingHandshake();
+			try {
+				handshake.socket = new BitTorrentSocket(new TcpChannelSocket(tcpChannel));
+				handshake.deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+				handshake.key = tcpChannel.register(selector, SelectionKey.OP_READ, handshake);
+				pendingHandshakes.add(handshake);
+			} catch (IOException e) {
+				try {
+					tcpChannel.close();
+				} catch (IOException closeException) {
+					// Nothing to clean up anymore
 				}
-					
-				BitTorrentHandshake handshake = peerSocket.readHandshake();
-				
-				Torrent torrent = torrentManager.getTorrent(StringUtil.byteArrayToString(handshake.getTorrentHash()));
-				
-				if (torrent == null) {
-					// We don't know the torrent the peer is downloading
-					peerSocket.close();
-					continue;
+			}
+		}
+	}
+
+	/**
+	 * Completes the connection once the handshake of the peer has arrived
+	 * @param handshake The connection which has received data
+	 */
+	private void onReadable(PendingHandshake handshake) {
+		BitTorrentSocket peerSocket = handshake.socket;
+		try {
+			if (!peerSocket.canReadMessage()) {
+				if (peerSocket.closed()) {
+					drop(handshake);
 				}
-				
-				Peer peer = new Peer(peerSocket, torrent);
-				peer.getExtensions().register(handshake.getPeerExtensionBytes());
-				peer.setTorrent(torrent);
-				peerSocket.sendHandshake(trackerManager.getPeerId(), torrent.getHashArray());
-				BitTorrentUtil.onPostHandshake(peer);
+				return;
+			}
+		} catch (IOException e) {
+			drop(handshake);
+			return;
+		}
+
+		// The peer selector will take over the channel
+		handshake.key.cancel();
+		pendingHandshakes.remove(handshake);
+		onHandshakeAvailable(peerSocket);
+	}
+
+	/**
+	 * Drops all connections which didn't send their handshake in time
+	 */
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		Iterator<PendingHandshake> iterator = pendingHandshakes.iterator();
+		while (iterator.hasNext()) {
+			PendingHandshake handshake = iterator.next();
+			if (handshake.deadline <= now) {
+				iterator.remove();
+				drop(handshake);
+			}
+		}
+	}
+
+	private void drop(PendingHandshake handshake) {
+		pendingHandshakes.remove(handshake);
+		handshake.key.cancel();
+		handshake.socket.close();
+	}
+
+	/**
+	 * Accepts the connections with blocking calls and handles every connection on its own thread
+	 */
+	private void acceptOnThreads() {
+		while (true) {
+			try {
+				SocketChannel tcpChannel = serverSocket.accept();
+				// Every connection gets its own thread which blocks until the handshake has been received
+				ThreadUtils.startVirtualThread(() -> acceptPeer(tcpChannel), String.format("Peer accepter %s", tcpChannel.socket().getRemoteSocketAddress()));
 			} catch (IOException e) {
 			}
 		}
 	}
 
+	/**
+	 * Reads the handshake of the peer with blocking reads
+	 * @param tcpChannel The accepted connection
+	 */
+	private void acceptPeer(SocketChannel tcpChannel) {
+		BitTorrentSocket peerSocket;
+		try {
+			peerSocket = new BitTorrentSocket(new TcpSocket(tcpChannel.socket()));
+			// Reading the handshake will block until it has arrived
+			peerSocket.setReadTimeout(HANDSHAKE_TIMEOUT);
+		} catch (IOException e) {
+			try {
+				tcpChannel.close();
+			} catch (IOException closeException) {
+				// Nothing to clean up anymore
+			}
+			return;
+		}
+
+		onHandshakeAvailable(peerSocket);
+	}
+
+	/**
+	 * Reads the handshake of the peer and hands it to the torrent which it is downloading
+	 * @param peerSocket The socket of which the handshake can be read
+	 */
+	private void onHandshakeAvailable(BitTorrentSocket peerSocket) {
+		try {
+			BitTorrentHandshake handshake = peerSocket.readHandshake();
+			peerSocket.setReadTimeout(0);
+
+			Torrent torrent = torrentManager.getTorrent(StringUtil.byteArrayToString(handshake.getTorrentHash()));
+
+			if (torrent == null) {
+				// We don't know the torrent the peer is downloading
+				peerSocket.close();
+				return;
+			}
+
+			Peer peer = new Peer(peerSocket, torrent);
+			peer.getExtensions().register(handshake.getPeerExtensionBytes());
+			peerSocket.sendHandshake(trackerManager.getPeerId(), torrent.getHashArray());
+			BitTorrentUtil.onPostHandshake(peer);
+		} catch (IOException e) {
+			peerSocket.close();
+		}
+	}
+
+	/**
+	 * An accepted connection which is waiting for the handshake of the peer
+	 */
+	private static class PendingHandshake {
+
+		private BitTorrentSocket socket;
+
+		private SelectionKey key;
+
+		/**
+		 * The timestamp at which the handshake times out
+		 */
+		private long deadline;
+
+	}
+
 }
@@ -2,12 +2,25 @@ package torrent;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import torrent.download.PeersReadRunnable;
-import torrent.download.PeersWriterRunnable;
+import org.johnnei.utils.config.Config;
+
+import torrent.download.PeerThreads;
+import torrent.download.PeersSelectorRunnable;
 import torrent.download.Torrent;
+import torrent.download.files.PieceCache;
+import torrent.download.files.disk.DiskExecutor;
+import torrent.download.peer.Peer;
+import torrent.download.peer.PeerDirection;
 import torrent.download.tracker.TrackerManager;
+import torrent.network.PeerIoMode;
+import torrent.network.RateEstimator;
+import torrent.network.TokenBucket;
 
 public class TorrentManager {
 
@@ -16,24 +29,97 @@ public class TorrentManager {
 	private PeerConnectionAccepter connectorThread;
 	private ArrayList<Torrent> activeTorrents;
 	
-	private PeersReadRunnable peerReader;
-	private PeersWriterRunnable peerWriter;
-	private Thread[] peerThreads;
+	/**
+	 * The active torrents indexed by their hash
+	 */
+	private Map<String, Torrent> torrentsByHash;
+	
+	/**
+	 * The way in which the peer input/output is handled
+	 */
+	private PeerIoMode ioMode;
+	
+	/**
+	 * The selectors which handle the peer input/output. Each peer is handled by exactly one of them
+	 */
+	private PeersSelectorRunnable[] peerSelectors;
+	
+	/**
+	 * The counter which spreads the peers over the selectors when they are partitioned by connection
+	 */
+	private AtomicInteger nextSelector;
+	
+	/**
+	 * The limit on the download rate of all torrents together
+	 */
+	private TokenBucket downloadBandwidth;
+	
+	/**
+	 * The limit on the upload rate of all torrents together
+	 */
+	private TokenBucket uploadBandwidth;
+	
+	/**
+	 * The measured download rate of all torrents together
+	 */
+	private RateEstimator downloadRate;
+	
+	/**
+	 * The measured upload rate of all torrents together
+	 */
+	private RateEstimator uploadRate;
+	
+	/**
+	 * The executor which runs the disk jobs of all torrents
+	 */
+	private DiskExecutor diskExecutor;
+	
+	/**
+	 * The cache in which the blocks of all torrents are collected before they are written
+	 */
+	private PieceCache pieceCache;
 
 	public TorrentManager() {
 		activeTorrents = new ArrayList<>();
+		torrentsByHash = new ConcurrentHashMap<>();
+		nextSelector = new AtomicInteger();
+		ioMode = PeerIoMode.getConfigured();
+		downloadBandwidth = new TokenBucket(null);
+		downloadBandwidth.setRate(Config.getConfig().getInt("download-max_rate") * 1024);
+		uploadBandwidth = new TokenBucket(null);
+		uploadBandwidth.setRate(Config.getConfig().getInt("upload-max_rate") * 1024);
+		downloadRate = new RateEstimator(null);
+		uploadRate = new RateEstimator(null);
+		diskExecutor = new DiskExecutor(Math.max(1, Config.getConfig().getInt("disk-io_threads")));
+		// Configured in MB
+		pieceCache = new PieceCache(Math.max(0, Config.getConfig().getInt("disk-cache_size")) * 1024L * 1024L);
 		
-		// Start reading peer input/output
-		peerReader = new PeersReadRunnable(this);
-		peerWriter = new PeersWriterRunnable(this);
-		
-		peerThreads = new Thread[2];
-		peerThreads[0] = new Thread(peerReader, "Peer input reader");
-		peerThreads[1] = new Thread(peerWriter, "Peer output writer");
+		// In the threaded mode every peer gets its own threads instead
+		if (ioMode == PeerIoMode.Selector) {
+			startPeerSelectors();
+		}
+	}
+	
+	/**
+	 * Starts the selectors which will read and write the peer input/output
+	 */
+	private void startPeerSelectors() {
+		int threadCount = Config.getConfig().getInt("peer-io_threads");
+		if (threadCount <= 0) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+		}
 		
-		for(Thread thread : peerThreads) {
-			thread.setDaemon(true);
-			thread.start();
+		peerSelectors = new PeersSelectorRunnable[threadCount];
+		for (int i = 0; i < peerSelectors.length; i++) {
+			try {
+				peerSelectors[i] = new PeersSelectorRunnable();
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to open the peer selector", e);
+			}
+			
+			Thread peerThread = new Thread(peerSelectors[i], String.format("Peer selector #%d", i));
+			peerThread.setDaemon(true);
+			peerThread.start();
 		}
 	}
 	
@@ -57,16 +143,71 @@ public class TorrentManager {
 	public void addTorrent(Torrent torrent) {
 		synchronized (TORRENTS_LOCK) {
 			activeTorrents.add(torrent);
+			torrentsByHash.put(torrent.getHash(), torrent);
 		}
 	}
 
-	public Torrent getTorrent(String hash) {
-		for (int i = 0; i < activeTorrents.size(); i++) {
-			Torrent t = activeTorrents.get(i);
-			if (t.getHash().equals(hash))
-				return t;
+	/**
+	 * Hands the peer to the peer input/output handling
+	 * @param peer The peer which has passed the handshake
+	 */
+	public void registerPeer(Peer peer) {
+		if (ioMode == PeerIoMode.Threaded) {
+			new PeerThreads(peer).start();
+			return;
 		}
-		return null;
+		
+		peerSelectors[getSelectorIndex(peer)].register(peer);
+	}
+	
+	/**
+	 * Selects the selector which will handle the peer.<br/>
+	 * By default all peers of a torrent share a selector, the <code>peer-io_affinity</code> option <code>connection</code>
+	 * spreads the peers of a single torrent over all selectors instead.
+	 * @param peer The peer to select the selector for
+	 * @return The index of the selector
+	 */
+	private int getSelectorIndex(Peer peer) {
+		if ("connection".equals(Config.getConfig().getString("peer-io_affinity"))) {
+			return Math.floorMod(nextSelector.getAndIncrement(), peerSelectors.length);
+		}
+		
+		return Math.floorMod(Arrays.hashCode(peer.getTorrent().getHashArray()), peerSelectors.length);
+	}
+
+	/**
+	 * Gets the limit which applies to all torrents together
+	 * @param direction The direction of the transfers
+	 * @return The bandwidth limit
+	 */
+	public TokenBucket getBandwidth(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadBandwidth : uploadBandwidth;
+	}
+
+	/**
+	 * Gets the measured transfer rate of all torrents together
+	 * @param direction The direction of the transfers
+	 * @return The rate estimator
+	 */
+	public RateEstimator getRate(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadRate : uploadRate;
+	}
+
+	public DiskExecutor getDiskExecutor() {
+		return diskExecutor;
+	}
+
+	public PieceCache getPieceCache() {
+		return pieceCache;
+	}
+
+	/**
+	 * Gets the active torrent with the given hash
+	 * @param hash The hash as formatted by {@link Torrent#getHash()}
+	 * @return The torrent or <code>null</code> if no active torrent has the hash
+	 */
+	public Torrent getTorrent(String hash) {
+		return torrentsByHash.get(hash);
 	}
 	
 	/**
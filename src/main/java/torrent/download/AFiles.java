@@ -1,5 +1,6 @@
 package torrent.download;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.stream.Stream;
@@ -138,4 +139,27 @@ public abstract class AFiles {
 		return fileInfos;
 	}
 
+	/**
+	 * Releases all files on the harddrive, the files can't be accessed anymore afterwards
+	 * @throws IOException When a file can't be closed, the other files get closed nonetheless
+	 */
+	public void close() throws IOException {
+		IOException failure = null;
+		for (FileInfo fileInfo : fileInfos) {
+			try {
+				fileInfo.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
 }
@@ -2,7 +2,10 @@ package torrent.download;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import torrent.download.files.Storage;
+import torrent.download.files.StorageMode;
 
 public class FileInfo {
 
@@ -29,12 +32,7 @@ public class FileInfo {
 	/**
 	 * The link between the file on the harddrive
 	 */
-	private RandomAccessFile fileAcces;
-	
-	/**
-	 * A lock to prevent concurrent writes to a single file
-	 */
-	public final Object FILE_LOCK = new Object();
+	private Storage storage;
 
 	public FileInfo(long filesize, long firstByteOffset, File file, int pieceCount) {
 		this.firstByteOffset = firstByteOffset;
@@ -46,7 +44,7 @@ public class FileInfo {
 				file.getParentFile().mkdirs();
 				file.createNewFile();
 			}
-			fileAcces = new RandomAccessFile(file, "rw");
+			storage = StorageMode.getConfigured().open(file, filesize);
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		}
@@ -83,8 +81,33 @@ public class FileInfo {
 		return filename;
 	}
 
-	public RandomAccessFile getFileAcces() {
-		return fileAcces;
+	/**
+	 * Gets the storage which holds the bytes of this file
+	 * 
+	 * @return The storage of the file
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Gets the channel of the file on the harddrive
+	 * 
+	 * @return The channel of the file
+	 */
+	public FileChannel getFileChannel() {
+		return storage.getChannel();
+	}
+
+	/**
+	 * Releases the file on the harddrive
+	 * 
+	 * @throws IOException When the file can't be closed
+	 */
+	public void close() throws IOException {
+		if (storage != null) {
+			storage.close();
+		}
 	}
 
 }
@@ -184,8 +184,8 @@ public class Files extends AFiles {
 		}
 		
 		for (FileInfo fileInfo : fileInfos) {
-			// If the file started before or at the wanted byteStartPosition then that file contains the bytes
-			if (fileInfo.getFirstByteOffset() <= bytesStartPosition) {
+			// If the file started before or at the wanted byteStartPosition and ends after it then that file contains the bytes
+			if (fileInfo.getFirstByteOffset() <= bytesStartPosition && bytesStartPosition < fileInfo.getFirstByteOffset() + fileInfo.getSize()) {
 				return fileInfo;
 			}
 		}
@@ -1,7 +1,6 @@
 package torrent.download;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
@@ -69,13 +68,9 @@ public class MetadataFile extends AFiles {
 	 */
 	public byte[] getBlock(int piece) throws IOException {
 		int blockOffset = piece * BLOCK_SIZE;
-		synchronized (fileInfos.get(0).FILE_LOCK) {
-			RandomAccessFile fileAccess = fileInfos.get(0).getFileAcces();
-			int blockSize = Math.min(BLOCK_SIZE, (int)(fileAccess.length() - blockOffset));
-			byte[] data = new byte[blockSize];
-			fileAccess.seek(blockOffset);
-			fileAccess.readFully(data);
-			return data;
-		}
+		int blockSize = Math.min(BLOCK_SIZE, fileSize - blockOffset);
+		byte[] data = new byte[blockSize];
+		fileInfos.get(0).getStorage().read(blockOffset, data, 0, blockSize);
+		return data;
 	}
 }
@@ -0,0 +1,123 @@
+package torrent.download;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.johnnei.utils.ThreadUtils;
+
+import torrent.download.peer.Peer;
+import torrent.download.peer.PeerDirection;
+import torrent.network.BitTorrentSocket;
+import torrent.protocol.IMessage;
+
+/**
+ * Handles a single peer with blocking reads and writes, each on their own (virtual) thread.<br/>
+ * This is used instead of the {@link PeersSelectorRunnable} when <code>peer-io_mode</code> is set to <code>thread</code>.
+ */
+public class PeerThreads {
+
+	/**
+	 * The maximum time the writer sleeps before it rechecks if the socket got closed
+	 */
+	private static final long WRITER_PARK_TIME = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The time after which a thread which got stopped by a saturated disk checks the disk again
+	 */
+	private static final long DISK_BACKOFF = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private Peer peer;
+
+	private Thread writerThread;
+
+	public PeerThreads(Peer peer) {
+		this.peer = peer;
+	}
+
+	/**
+	 * Starts the reader and writer thread of the peer
+	 */
+	public void start() {
+		writerThread = ThreadUtils.startVirtualThread(this::writeMessages, String.format("Peer writer %s", peer));
+		// Parking and unparking doesn't pin virtual threads in contrast to wait/notify
+		peer.getBitTorrentSocket().setMessageQueuedListener(() -> LockSupport.unpark(writerThread));
+		ThreadUtils.startVirtualThread(this::readMessages, String.format("Peer reader %s", peer));
+	}
+
+	private void readMessages() {
+		BitTorrentSocket socket = peer.getBitTorrentSocket();
+
+		try {
+			while (!socket.closed()) {
+				long delay = socket.getReadDelay();
+				if (delay > 0) {
+					// Not reading lets the TCP window slow down the peer
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+					continue;
+				}
+
+				if (peer.getTorrent().isDiskSaturated()) {
+					LockSupport.parkNanos(this, DISK_BACKOFF);
+					continue;
+				}
+
+				socket.awaitMessage();
+				IMessage message = socket.readMessage();
+				message.process(peer);
+				peer.updateLastActivity();
+				queueUpload();
+			}
+		} catch (EOFException e) {
+			socket.close();
+		} catch (IOException e) {
+			onError(e);
+		}
+
+		LockSupport.unpark(writerThread);
+	}
+
+	private void writeMessages() {
+		BitTorrentSocket socket = peer.getBitTorrentSocket();
+
+		try {
+			while (!socket.closed()) {
+				if (!socket.canWriteMessage()) {
+					// An upload which got held back by a saturated disk has to be queued by the writer itself
+					queueUpload();
+					LockSupport.parkNanos(this, peer.getTorrent().isDiskSaturated() ? DISK_BACKOFF : WRITER_PARK_TIME);
+					continue;
+				}
+
+				long delay = socket.getWriteDelay();
+				if (delay > 0) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+					continue;
+				}
+
+				socket.sendMessages();
+				queueUpload();
+			}
+		} catch (IOException e) {
+			onError(e);
+		}
+	}
+
+	/**
+	 * Requests the next block to be read from the disk when the peer has nothing left to send
+	 */
+	private void queueUpload() {
+		if (!peer.getBitTorrentSocket().canWriteMessage() && peer.getWorkQueueSize(PeerDirection.Upload) > 0 && !peer.getTorrent().isDiskSaturated()) {
+			peer.queueNextPieceForSending();
+		}
+	}
+
+	private void onError(IOException e) {
+		if (!peer.getBitTorrentSocket().closed()) {
+			peer.getLogger().severe(e.getMessage());
+			peer.getBitTorrentSocket().close();
+		}
+	}
+
+}
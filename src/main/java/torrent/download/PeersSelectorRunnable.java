@@ -0,0 +1,393 @@
+package torrent.download;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.johnnei.utils.ConsoleLogger;
+
+import torrent.download.peer.Peer;
+import torrent.download.peer.PeerDirection;
+import torrent.network.BitTorrentSocket;
+import torrent.protocol.IMessage;
+
+/**
+ * Reads and writes the messages of all peers based on the readiness which is reported by a {@link Selector}.<br/>
+ * Peers of which the socket is not backed by a channel (uTP) can't be selected and will be polled instead.<br/>
+ * The {@link torrent.TorrentManager} runs several of these selectors and hands every peer to exactly one of them.<br/>
+ * Peers which exceed their bandwidth limit lose the interest in the throttled operation until the limit allows them to
+ * continue. In the same way peers stop reading and uploading while the disk can't keep up.
+ */
+public class PeersSelectorRunnable implements Runnable {
+
+	/**
+	 * The interval in milliseconds at which the peers which can't be selected will be polled
+	 */
+	private static final int POLL_INTERVAL = 10;
+
+	/**
+	 * The time in milliseconds after which a peer which got stopped by a saturated disk checks the disk again
+	 */
+	private static final int DISK_BACKOFF = 50;
+
+	private Selector selector;
+
+	/**
+	 * The peers which have been handed to this selector but not yet registered on it
+	 */
+	private Queue<Peer> pendingRegistrations;
+
+	/**
+	 * The peers which have queued messages since the last selection
+	 */
+	private Queue<Peer> pendingWrites;
+
+	/**
+	 * The peers which can't be registered on the selector
+	 */
+	private LinkedList<Peer> polledPeers;
+
+	/**
+	 * The peers which are waiting for their bandwidth limit ordered by the time at which they may continue
+	 */
+	private PriorityQueue<ThrottledPeer> throttledPeers;
+
+	/**
+	 * The entries of {@link #throttledPeers}, an operation of a peer is throttled at most once at a time
+	 */
+	private Set<ThrottledPeer> throttledOperations;
+
+	private Logger log;
+
+	public PeersSelectorRunnable() throws IOException {
+		selector = Selector.open();
+		pendingRegistrations = new ConcurrentLinkedQueue<>();
+		pendingWrites = new ConcurrentLinkedQueue<>();
+		polledPeers = new LinkedList<>();
+		throttledPeers = new PriorityQueue<>();
+		throttledOperations = new HashSet<>();
+		log = ConsoleLogger.createLogger("PeerSelector", Level.INFO);
+	}
+
+	/**
+	 * Queues the peer to be registered on this selector
+	 * @param peer The peer which has passed the handshake
+	 */
+	public void register(Peer peer) {
+		pendingRegistrations.add(peer);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select(getSelectTimeout());
+			} catch (IOException e) {
+				log.warning(String.format("Failed to select peers: %s", e.getMessage()));
+				continue;
+			}
+
+			registerPeers();
+			updateWriteInterest();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				processKey(key);
+			}
+
+			resumeThrottledPeers();
+			pollPeers();
+		}
+	}
+
+	/**
+	 * Calculates how long the selector may wait without missing a poll or a throttled peer which may continue
+	 * @return The timeout in milliseconds or 0 to wait indefinitely
+	 */
+	private long getSelectTimeout() {
+		long timeout = polledPeers.isEmpty() ? 0 : POLL_INTERVAL;
+
+		ThrottledPeer throttledPeer = throttledPeers.peek();
+		if (throttledPeer != null) {
+			long delay = Math.max(1, throttledPeer.resumeTime - System.currentTimeMillis());
+			timeout = (timeout == 0) ? delay : Math.min(timeout, delay);
+		}
+
+		return timeout;
+	}
+
+	private void registerPeers() {
+		Peer peer;
+		while ((peer = pendingRegistrations.poll()) != null) {
+			BitTorrentSocket socket = peer.getBitTorrentSocket();
+			SocketChannel channel = socket.getChannel();
+
+			if (channel == null) {
+				polledPeers.add(peer);
+				continue;
+			}
+
+			final Peer registeredPeer = peer;
+			try {
+				channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, peer);
+				socket.setMessageQueuedListener(() -> onMessageQueued(registeredPeer));
+			} catch (ClosedChannelException e) {
+				continue;
+			}
+
+			// The handshake might have buffered the first messages already
+			try {
+				readMessages(peer);
+			} catch (IOException e) {
+				onError(peer, e);
+			}
+		}
+	}
+
+	private void onMessageQueued(Peer peer) {
+		pendingWrites.add(peer);
+		selector.wakeup();
+	}
+
+	/**
+	 * Adds the write interest for all peers which have queued messages
+	 */
+	private void updateWriteInterest() {
+		Peer peer;
+		while ((peer = pendingWrites.poll()) != null) {
+			SocketChannel channel = peer.getBitTorrentSocket().getChannel();
+			SelectionKey key = channel.keyFor(selector);
+			if (key == null || !key.isValid()) {
+				continue;
+			}
+
+			try {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			} catch (CancelledKeyException e) {
+				// Socket got closed in the mean time
+			}
+		}
+	}
+
+	private void processKey(SelectionKey key) {
+		Peer peer = (Peer) key.attachment();
+
+		try {
+			if (key.isReadable()) {
+				readMessages(peer);
+			}
+
+			if (key.isValid() && key.isWritable()) {
+				writeMessages(peer, key);
+			}
+		} catch (CancelledKeyException e) {
+			// Socket got closed while processing it
+		} catch (IOException e) {
+			onError(peer, e);
+		}
+	}
+
+	private void readMessages(Peer peer) throws IOException {
+		BitTorrentSocket socket = peer.getBitTorrentSocket();
+
+		// A peer is only handled by a single selector, the messages synchronize on the state which they share with the torrent
+		while (!socket.closed()) {
+			long delay = socket.getReadDelay();
+			if (delay > 0) {
+				throttle(peer, SelectionKey.OP_READ, delay);
+				break;
+			}
+
+			if (peer.getTorrent().isDiskSaturated()) {
+				// The blocks would only pile up in the disk queue, let the TCP window slow down the peer instead
+				throttle(peer, SelectionKey.OP_READ, DISK_BACKOFF);
+				break;
+			}
+
+			if (!socket.canReadMessage()) {
+				break;
+			}
+
+			IMessage message = socket.readMessage();
+			message.process(peer);
+			peer.updateLastActivity();
+		}
+
+		queueUpload(peer);
+	}
+
+	private void writeMessages(Peer peer, SelectionKey key) throws IOException {
+		BitTorrentSocket socket = peer.getBitTorrentSocket();
+
+		socket.flush();
+		while (!socket.hasPendingOutput() && socket.canWriteMessage() && socket.getWriteDelay() == 0) {
+			socket.sendMessages();
+		}
+
+		if (socket.hasPendingOutput()) {
+			return;
+		}
+
+		if (!socket.canWriteMessage()) {
+			// Everything has been written, only wake up again when new messages get queued
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			queueUpload(peer);
+		} else {
+			throttle(peer, SelectionKey.OP_WRITE, socket.getWriteDelay());
+		}
+	}
+
+	/**
+	 * Removes the interest in the operation until the bandwidth limit allows the peer to continue
+	 * @param peer The peer which exceeded the limit
+	 * @param operation The operation which has to wait
+	 * @param delay The time in milliseconds to wait
+	 */
+	private void throttle(Peer peer, int operation, long delay) {
+		SocketChannel channel = peer.getBitTorrentSocket().getChannel();
+		SelectionKey key = (channel == null) ? null : channel.keyFor(selector);
+		if (key == null || !key.isValid()) {
+			// Polled peers simply get checked again on the next poll
+			return;
+		}
+
+		key.interestOps(key.interestOps() & ~operation);
+		ThrottledPeer throttledPeer = new ThrottledPeer(peer, key, operation, System.currentTimeMillis() + delay);
+		if (throttledOperations.add(throttledPeer)) {
+			throttledPeers.add(throttledPeer);
+		}
+	}
+
+	/**
+	 * Restores the interest of the throttled peers of which the delay has passed
+	 */
+	private void resumeThrottledPeers() {
+		long now = System.currentTimeMillis();
+		while (!throttledPeers.isEmpty() && throttledPeers.peek().resumeTime <= now) {
+			ThrottledPeer throttledPeer = throttledPeers.poll();
+			throttledOperations.remove(throttledPeer);
+			if (!throttledPeer.key.isValid()) {
+				continue;
+			}
+
+			try {
+				throttledPeer.key.interestOps(throttledPeer.key.interestOps() | throttledPeer.operation);
+				if (throttledPeer.operation == SelectionKey.OP_READ) {
+					// Data which has already been buffered won't be reported by the selector
+					readMessages(throttledPeer.peer);
+				}
+			} catch (CancelledKeyException e) {
+				// Socket got closed in the mean time
+			} catch (IOException e) {
+				onError(throttledPeer.peer, e);
+			}
+		}
+	}
+
+	/**
+	 * Requests the next block to be read from the disk when the peer has nothing left to send
+	 * @param peer
+	 */
+	private void queueUpload(Peer peer) {
+		if (peer.getBitTorrentSocket().canWriteMessage() || peer.getWorkQueueSize(PeerDirection.Upload) == 0) {
+			return;
+		}
+
+		if (peer.getTorrent().isDiskSaturated()) {
+			// Resuming the read checks the upload again
+			throttle(peer, SelectionKey.OP_READ, DISK_BACKOFF);
+			return;
+		}
+
+		peer.queueNextPieceForSending();
+	}
+
+	/**
+	 * Processes the peers which can't be selected in the same way as a selected peer which is both readable and writable
+	 */
+	private void pollPeers() {
+		polledPeers.removeIf(p -> p.getBitTorrentSocket().closed());
+
+		for (Peer peer : polledPeers) {
+			BitTorrentSocket socket = peer.getBitTorrentSocket();
+			try {
+				readMessages(peer);
+
+				if (socket.canWriteMessage() && socket.getWriteDelay() == 0) {
+					socket.sendMessages();
+				}
+			} catch (IOException e) {
+				onError(peer, e);
+			}
+		}
+	}
+
+	private void onError(Peer peer, IOException e) {
+		peer.getLogger().severe(e.getMessage());
+		peer.getBitTorrentSocket().close();
+	}
+
+	/**
+	 * A peer of which an operation has been suspended to stay within the bandwidth limit
+	 */
+	private static class ThrottledPeer implements Comparable<ThrottledPeer> {
+
+		private Peer peer;
+
+		private SelectionKey key;
+
+		/**
+		 * The operation which has been removed from the interest set
+		 */
+		private int operation;
+
+		/**
+		 * The time at which the operation may continue
+		 */
+		private long resumeTime;
+
+		public ThrottledPeer(Peer peer, SelectionKey key, int operation, long resumeTime) {
+			this.peer = peer;
+			this.key = key;
+			this.operation = operation;
+			this.resumeTime = resumeTime;
+		}
+
+		@Override
+		public int compareTo(ThrottledPeer other) {
+			return Long.compare(resumeTime, other.resumeTime);
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() * 31 + operation;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ThrottledPeer)) {
+				return false;
+			}
+
+			ThrottledPeer other = (ThrottledPeer) obj;
+			return key == other.key && operation == other.operation;
+		}
+
+	}
+
+}
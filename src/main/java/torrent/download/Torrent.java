@@ -23,13 +23,16 @@ import torrent.download.algos.IDownloadRegulator;
 import torrent.download.algos.IPeerManager;
 import torrent.download.algos.PhasePreMetadata;
 import torrent.download.files.Piece;
+import torrent.download.files.PieceCache;
+import torrent.download.files.ReadCache;
 import torrent.download.files.disk.DiskJob;
 import torrent.download.files.disk.DiskJobStoreBlock;
-import torrent.download.files.disk.IOManager;
 import torrent.download.peer.Peer;
 import torrent.download.peer.PeerDirection;
 import torrent.download.tracker.TrackerManager;
 import torrent.encoding.SHA1;
+import torrent.network.RateEstimator;
+import torrent.network.TokenBucket;
 import torrent.protocol.IMessage;
 import torrent.protocol.UTMetadata;
 import torrent.protocol.messages.MessageChoke;
@@ -101,14 +104,13 @@ public class Torrent implements Runnable {
 	 */
 	private long lastPeerUpdate = System.currentTimeMillis();
 	/**
-	 * Remembers if the torrent is collecting a piece or checking the hash so we can wait until all pieces are written to the hdd before continuing
+	 * The amount of disk jobs which have not completed yet, the phase waits until all pieces are written to the hdd before continuing
 	 */
-	private AtomicInteger torrentHaltingOperations;
-
+	private AtomicInteger pendingDiskJobs;
 	/**
-	 * IOManager to manage the transaction between the hdd and the programs so none of the actual network thread need to get block for that
+	 * The lock on which the torrent waits until all disk jobs have completed
 	 */
-	private IOManager ioManager;
+	private final Object DISK_JOB_LOCK = new Object();
 	/**
 	 * The phase in which the torrent currently is
 	 */
@@ -127,6 +129,31 @@ public class Torrent implements Runnable {
 	private Thread thread;
 
 	private Consumer<String> onFinishCallback;
+	
+	/**
+	 * The limit on the download rate of this torrent
+	 */
+	private TokenBucket downloadBandwidth;
+	
+	/**
+	 * The limit on the upload rate of this torrent
+	 */
+	private TokenBucket uploadBandwidth;
+	
+	/**
+	 * The measured download rate of all peers of this torrent together
+	 */
+	private RateEstimator downloadRate;
+	
+	/**
+	 * The measured upload rate of all peers of this torrent together
+	 */
+	private RateEstimator uploadRate;
+	
+	/**
+	 * The cache which serves the blocks that are requested by the peers of this torrent
+	 */
+	private ReadCache readCache;
 
 	public static final byte STATE_DOWNLOAD_METADATA = 0;
 	public static final byte STATE_DOWNLOAD_DATA = 1;
@@ -139,15 +166,22 @@ public class Torrent implements Runnable {
 		this.manager = manager;
 		this.btihHash = btihHash;
 		torrentStatus = STATE_DOWNLOAD_METADATA;
-		torrentHaltingOperations = new AtomicInteger();
+		pendingDiskJobs = new AtomicInteger();
 		downloadedBytes = 0L;
 		peers = new LinkedList<Peer>();
 		keepDownloading = true;
 		status = "Parsing Magnet Link";
-		ioManager = new IOManager();
 		downloadRegulator = new FullPieceSelect(this);
 		peerManager = new BurstPeerManager(Config.getConfig().getInt("peer-max"), Config.getConfig().getFloat("peer-max_burst_ratio"));
 		phase = new PhasePreMetadata(trackerManager, this);
+		downloadBandwidth = new TokenBucket(manager.getBandwidth(PeerDirection.Download));
+		uploadBandwidth = new TokenBucket(manager.getBandwidth(PeerDirection.Upload));
+		downloadBandwidth.setRate(Config.getConfig().getInt("download-max_torrent_rate") * 1024);
+		uploadBandwidth.setRate(Config.getConfig().getInt("upload-max_torrent_rate") * 1024);
+		downloadRate = new RateEstimator(manager.getRate(PeerDirection.Download));
+		uploadRate = new RateEstimator(manager.getRate(PeerDirection.Upload));
+		// Configured in MB and KB
+		readCache = new ReadCache(Math.max(0, Config.getConfig().getInt("disk-read_cache_size")) * 1024L * 1024L, Config.getConfig().getInt("disk-read_ahead") * 1024);
 		
 		thread = new Thread(this, displayName);
 	}
@@ -167,6 +201,7 @@ public class Torrent implements Runnable {
 		synchronized (this) {
 			peers.add(peer);
 		}
+		manager.registerPeer(peer);
 	}
 	
 	/**
@@ -186,21 +221,45 @@ public class Torrent implements Runnable {
 				peers.forEach(p -> p.onTorrentPhaseChange());	
 			}
 			phase.preprocess();
-			while (!phase.isDone() || torrentHaltingOperations.get() > 0) {
-				processPeers();
-				phase.process();
-				ioManager.processTask(this);
-				ThreadUtils.sleep(25);
-			}
+			do {
+				while (!phase.isDone()) {
+					processPeers();
+					phase.process();
+					ThreadUtils.sleep(25);
+				}
+				// A piece which fails its hash check afterwards makes the phase continue
+				awaitDiskJobs();
+			} while (!phase.isDone());
 			phase.postprocess();
 			phase = phase.nextPhase();
 		}
 		log.info("Torrent has finished");
+		closeFiles();
 		if(onFinishCallback != null){
 			onFinishCallback.accept(displayName);
 		}
 	}
 
+	/**
+	 * Releases the files and the metadata file of the torrent
+	 */
+	private void closeFiles() {
+		if (files != null && files != metadata) {
+			closeFiles(files);
+		}
+		if (metadata != null) {
+			closeFiles(metadata);
+		}
+	}
+
+	private void closeFiles(AFiles closedFiles) {
+		try {
+			closedFiles.close();
+		} catch (IOException e) {
+			log.warning(String.format("Failed to close the files: %s", e.getMessage()));
+		}
+	}
+
 	/**
 	 * Manages all states about peers
 	 */
@@ -303,34 +362,81 @@ public class Torrent implements Runnable {
 	 * @param data The bytes to be stored
 	 */
 	public void collectPiece(int index, int offset, byte[] data) {
-		addToHaltingOperations(1);
 		int blockIndex = offset / files.getBlockSize();
 		addDiskJob(new DiskJobStoreBlock(index, blockIndex, data));
 	}
 
-	public void addToHaltingOperations(int newTasks) {
-		for (int i = 0; i < newTasks; i++) {
-			torrentHaltingOperations.incrementAndGet();
-		}
+	/**
+	 * Queues a task on the shared disk executor, the torrent keeps track of it until it completed
+	 * 
+	 * @param task The task to add
+	 */
+	public void addDiskJob(DiskJob task) {
+		pendingDiskJobs.incrementAndGet();
+		manager.getDiskExecutor().submit(this, task, this::onDiskJobCompleted);
 	}
 
+	/**
+	 * Queues a task on the shared disk executor after a delay, the torrent keeps track of it from now on
+	 * 
+	 * @param task The task to add
+	 * @param delay The time in milliseconds to wait before the task gets queued
+	 */
+	public void addDiskJob(DiskJob task, long delay) {
+		pendingDiskJobs.incrementAndGet();
+		manager.getDiskExecutor().submit(this, task, this::onDiskJobCompleted, delay);
+	}
+
+	private void onDiskJobCompleted() {
+		if (pendingDiskJobs.decrementAndGet() == 0) {
+			synchronized (DISK_JOB_LOCK) {
+				DISK_JOB_LOCK.notifyAll();
+			}
+		}
+	}
 
 	/**
-	 * Called by IOManager to notify the torrent that we processed the collectingPiece
+	 * Waits until all disk jobs of this torrent have completed
 	 */
-	public void finishHaltingOperations(int completedTasks) {
-		for (int i = 0; i < completedTasks; i++) {
-			torrentHaltingOperations.decrementAndGet();
+	private void awaitDiskJobs() {
+		synchronized (DISK_JOB_LOCK) {
+			while (pendingDiskJobs.get() > 0) {
+				try {
+					DISK_JOB_LOCK.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
 		}
 	}
 
 	/**
-	 * Adds a task to the IOManager of this torrent
+	 * Checks if the disk can't keep up with the jobs which are queued. The peers of this torrent stop reading until it
+	 * has caught up.
 	 * 
-	 * @param task The task to add
+	 * @return <code>true</code> when no new disk jobs should be caused
 	 */
-	public void addDiskJob(DiskJob task) {
-		ioManager.addTask(task);
+	public boolean isDiskSaturated() {
+		return manager.getDiskExecutor().isSaturated();
+	}
+
+	/**
+	 * Gets the cache which holds the blocks of the pieces which are being downloaded
+	 * 
+	 * @return The piece cache
+	 */
+	public PieceCache getPieceCache() {
+		return manager.getPieceCache();
+	}
+
+	/**
+	 * Gets the cache which serves the blocks that are requested by the peers
+	 * 
+	 * @return The read cache
+	 */
+	public ReadCache getReadCache() {
+		return readCache;
 	}
 
 	public void broadcastMessage(IMessage m) {
@@ -417,12 +523,6 @@ public class Torrent implements Runnable {
 		return peerManager.getAnnounceWantAmount(torrentStatus, peers.size());
 	}
 
-	public void pollRates() {
-		synchronized (this) {
-			peers.forEach(p -> p.getBitTorrentSocket().pollRates());
-		}
-	}
-	
 	/**
 	 * Gets the files which are being downloaded within this torrent
 	 * @return
@@ -432,15 +532,29 @@ public class Torrent implements Runnable {
 	}
 	
 	public int getDownloadRate() {
-		synchronized (this) {
-			return peers.stream().mapToInt(p -> p.getBitTorrentSocket().getDownloadRate()).sum();
-		}
+		return downloadRate.getRate();
 	}
 
 	public int getUploadRate() {
-		synchronized (this) {
-			return peers.stream().mapToInt(p -> p.getBitTorrentSocket().getUploadRate()).sum();
-		}
+		return uploadRate.getRate();
+	}
+
+	/**
+	 * Gets the measured transfer rate of all peers of this torrent together
+	 * @param direction The direction of the transfers
+	 * @return The rate estimator
+	 */
+	public RateEstimator getRate(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadRate : uploadRate;
+	}
+
+	/**
+	 * Gets the limit which applies to all peers of this torrent together
+	 * @param direction The direction of the transfers
+	 * @return The bandwidth limit, which is unlimited unless a rate has been set
+	 */
+	public TokenBucket getBandwidth(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadBandwidth : uploadBandwidth;
 	}
 
 	public int getSeedCount() {
@@ -0,0 +1,43 @@
+package torrent.download.files;
+
+import torrent.download.FileInfo;
+
+/**
+ * A continuous range of bytes within a single file of a torrent
+ */
+public class FileRegion {
+
+	/**
+	 * The file which contains the bytes
+	 */
+	private final FileInfo fileInfo;
+
+	/**
+	 * The offset of the first byte within the file
+	 */
+	private final long offset;
+
+	/**
+	 * The amount of bytes in this region
+	 */
+	private final int length;
+
+	public FileRegion(FileInfo fileInfo, long offset, int length) {
+		this.fileInfo = fileInfo;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public FileInfo getFileInfo() {
+		return fileInfo;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,148 @@
+package torrent.download.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A storage which maps the file into memory.<br/>
+ * The file is mapped in windows of {@link #WINDOW_SIZE} bytes when they are first accessed, as a single mapping can't
+ * exceed 2GB. Reads and writes are plain memory copies and the operating system writes the dirty pages back to the
+ * disk on its own.<br/>
+ * A fault while accessing a window, such as a full disk or a file which got truncated, is reported as an
+ * {@link IOException} like it is for the other storages.
+ */
+public class MappedStorage implements Storage {
+
+	/**
+	 * The size of a single mapping, must be a power of two
+	 */
+	private static final int WINDOW_SIZE = 1 << 26;
+
+	private final Object MAP_LOCK = new Object();
+
+	private final FileChannel channel;
+
+	/**
+	 * The size of the file in the torrent
+	 */
+	private final long size;
+
+	/**
+	 * The mapped windows, <code>null</code> if the window hasn't been accessed yet
+	 */
+	private final MappedByteBuffer[] windows;
+
+	/**
+	 * If {@link #close()} has been called
+	 */
+	private boolean closed;
+
+	/**
+	 * Opens the file and grows it to the given size if it is smaller
+	 * 
+	 * @param file The file on the harddrive
+	 * @param size The size of the file in the torrent
+	 * @throws IOException When the file can't be opened
+	 */
+	public MappedStorage(File file, long size) throws IOException {
+		this.size = size;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+	}
+
+	@Override
+	public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+		checkBounds(position, length);
+		while (length > 0) {
+			ByteBuffer window = getWindow(position);
+			int bytes = Math.min(length, window.remaining());
+			try {
+				window.get(buffer, offset, bytes);
+			} catch (InternalError e) {
+				throw new IOException(String.format("Failed to read %d bytes at position %d", bytes, position), e);
+			}
+			position += bytes;
+			offset += bytes;
+			length -= bytes;
+		}
+	}
+
+	@Override
+	public void write(long position, byte[] data, int offset, int length) throws IOException {
+		checkBounds(position, length);
+		while (length > 0) {
+			ByteBuffer window = getWindow(position);
+			int bytes = Math.min(length, window.remaining());
+			try {
+				window.put(data, offset, bytes);
+			} catch (InternalError e) {
+				throw new IOException(String.format("Failed to write %d bytes at position %d", bytes, position), e);
+			}
+			position += bytes;
+			offset += bytes;
+			length -= bytes;
+		}
+	}
+
+	@Override
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * {@inheritDoc}<br/>
+	 * The windows get unmapped once they have been garbage collected. Unmapping them right away would crash the JVM on
+	 * an access which is still in progress.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (MAP_LOCK) {
+			closed = true;
+			Arrays.fill(windows, null);
+			channel.close();
+		}
+	}
+
+	private void checkBounds(long position, int length) throws IOException {
+		if (position < 0 || position + length > size) {
+			throw new IOException(String.format("Cannot access %d bytes at position %d of a file of %d bytes", length, position, size));
+		}
+	}
+
+	/**
+	 * Gets a view on the window which contains the position, mapping the window if needed
+	 * 
+	 * @param position The offset within the file
+	 * @return A buffer of which the position is at the given offset, the buffer is private to the caller
+	 * @throws IOException When the window can't be mapped
+	 */
+	private ByteBuffer getWindow(long position) throws IOException {
+		int index = (int) (position / WINDOW_SIZE);
+		MappedByteBuffer window;
+		synchronized (MAP_LOCK) {
+			if (closed) {
+				throw new IOException("Storage has been closed");
+			}
+
+			window = windows[index];
+			if (window == null) {
+				long start = (long) index * WINDOW_SIZE;
+				// Mapping beyond the end of the file grows the file
+				window = channel.map(MapMode.READ_WRITE, start, Math.min(WINDOW_SIZE, size - start));
+				windows[index] = window;
+			}
+		}
+
+		// The duplicate has its own position so concurrent accesses don't interfere
+		ByteBuffer view = window.duplicate();
+		view.position((int) (position & (WINDOW_SIZE - 1)));
+		return view;
+	}
+
+}
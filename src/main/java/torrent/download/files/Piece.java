@@ -1,7 +1,6 @@
 package torrent.download.files;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,11 +31,17 @@ public class Piece implements Comparable<Piece> {
 	private int hashFailCheck;
 	
 	private byte[] expectedHash;
+	
+	/**
+	 * The hash of the blocks which have been stored so far
+	 */
+	private PieceHasher hasher;
 
 	public Piece(AFiles files, byte[] hash, int index, int pieceSize, int blockSize) {
 		this.index = index;
 		this.files = files;
 		this.expectedHash = hash;
+		hasher = new PieceHasher(this);
 		blocks = new ArrayList<>(JMath.ceilDivision(pieceSize, blockSize));
 		int blockIndex = 0;
 		while (pieceSize > 0) {
@@ -68,6 +73,7 @@ public class Piece implements Comparable<Piece> {
 	public void reset(int blockIndex) {
 		blocks.get(blockIndex).setDone(false);
 		blocks.get(blockIndex).setRequested(false);
+		hasher.blockReset(blockIndex);
 	}
 
 	/**
@@ -82,47 +88,72 @@ public class Piece implements Comparable<Piece> {
 		byte[] pieceData = new byte[length];
 		
 		int readBytes = 0;
-		while (readBytes < length) {
+		for (FileRegion region : getFileRegions(offset, length)) {
+			// Read the actual files
+			region.getFileInfo().getStorage().read(region.getOffset(), pieceData, readBytes, region.getLength());
+			readBytes += region.getLength();
+		}
+		return pieceData;
+	}
+	
+	/**
+	 * Maps a bit of data of this piece onto the files which contain it
+	 * 
+	 * @param offset The offset in the piece
+	 * @param length The amount of bytes
+	 * @return The regions of the files in the order in which they contain the data
+	 * @throws TorrentException If the data is not within any of the files in this torrent
+	 */
+	public List<FileRegion> getFileRegions(int offset, int length) throws TorrentException, IOException {
+		List<FileRegion> regions = new ArrayList<>(1);
+		
+		int mappedBytes = 0;
+		while (mappedBytes < length) {
 			// Offset within the piece
-			int alreadyReadOffset = offset + readBytes;
+			int alreadyMappedOffset = offset + mappedBytes;
 			
 			// Find file for the given offset
-			FileInfo outputFile = files.getFileForBytes(index, 0, alreadyReadOffset);
+			FileInfo file = files.getFileForBytes(index, 0, alreadyMappedOffset);
 			
 			// Calculate offset as if the torrent was one file
 			long pieceIndexOffset = (index * files.getPieceSize());
-			long totalOffset = pieceIndexOffset + alreadyReadOffset;
+			long totalOffset = pieceIndexOffset + alreadyMappedOffset;
 			
 			// Calculate the offset within the file
-			long offsetInFile = totalOffset - outputFile.getFirstByteOffset();
-			
-			// Calculate how many bytes we want/can read from the file
-			int bytesToRead = Math.min(length - readBytes, (int) (outputFile.getSize() - offsetInFile));
+			long offsetInFile = totalOffset - file.getFirstByteOffset();
 			
 			// Check if we don't read outside the file
 			if (offsetInFile < 0) {
 				throw new IOException("Cannot seek to position: " + offsetInFile);
 			}
 			
-			// Read the actual files
-			synchronized (outputFile.FILE_LOCK) {
-				RandomAccessFile file = outputFile.getFileAcces();
-				file.seek(offsetInFile);
-				file.readFully(pieceData, readBytes, bytesToRead);
-				readBytes += bytesToRead;
-			}
+			// Calculate how many bytes we want/can read from the file
+			int bytesInFile = (int) Math.min(length - mappedBytes, file.getSize() - offsetInFile);
+			
+			regions.add(new FileRegion(file, offsetInFile, bytesInFile));
+			mappedBytes += bytesInFile;
 		}
-		return pieceData;
+		return regions;
 	}
 	
 	/**
-	 * Checks if the received bytes hash matches with the hash which was given in the metadata
+	 * Checks if the received bytes hash matches with the hash which was given in the metadata<br/>
+	 * The blocks which have been stored in order are already hashed, only the others are read from the disk
 	 * 
 	 * @return hashMatched ? true : false
 	 * @throws TorrentException If the piece is not within any of the files in this torrent (Shouldn't occur)
 	 */
 	public boolean checkHash() throws TorrentException, IOException {
-		byte[] pieceData = loadPiece(0, getSize());
+		return SHA1.match(expectedHash, hasher.digest());
+	}
+	
+	/**
+	 * Checks if the given data of the entire piece matches with the hash which was given in the metadata
+	 * 
+	 * @param pieceData The data of the piece
+	 * @return hashMatched ? true : false
+	 */
+	public boolean checkHash(byte[] pieceData) {
 		return SHA1.match(expectedHash, SHA1.hash(pieceData));
 	}
 
@@ -134,47 +165,42 @@ public class Piece implements Comparable<Piece> {
 	 * @throws Exception
 	 */
 	public void storeBlock(int blockIndex, byte[] blockData) throws TorrentException, IOException {
+		checkBlockSize(blockIndex, blockData);
+		writePiece(getBlockOffset(blockIndex), blockData, 0, blockData.length);
+		hasher.blockStored(blockIndex, blockData);
+		
+		// Mark the block as done
+		blocks.get(blockIndex).setDone(true);
+	}
+	
+	/**
+	 * Checks if the data has the size of the block, resets the block if it doesn't
+	 * 
+	 * @param blockIndex The index of the block
+	 * @param blockData The data of the block
+	 * @throws TorrentException If the size did not match
+	 */
+	public void checkBlockSize(int blockIndex, byte[] blockData) throws TorrentException {
 		Block block = blocks.get(blockIndex);
 		if (block.getSize() != blockData.length) {
-			blocks.get(blockIndex).setDone(false);
-			blocks.get(blockIndex).setRequested(false);
-			throw new TorrentException("Block size did not match. Expected: " + blocks.get(blockIndex).getSize() + ", Got: " + blockData.length);
+			reset(blockIndex);
+			throw new TorrentException("Block size did not match. Expected: " + block.getSize() + ", Got: " + blockData.length);
 		}
-		
-		int remainingBytesToWrite = block.getSize();
-		// Write Block
-		while (remainingBytesToWrite > 0) {
-			// The offset within the block itself
-			int dataOffset = (block.getSize() - remainingBytesToWrite);
-			// Retrieve the file to which we need to write
-			FileInfo outputFile = files.getFileForBytes(index, blockIndex, dataOffset);
-			
-			// Calculate the offset in bytes as if the torrent was one file
-			final long pieceOffset = (index * files.getPieceSize());
-			final long blockOffset = (blockIndex * files.getBlockSize());
-			final long totalOffset = pieceOffset + blockOffset + dataOffset;
-			
-			// Calculate the offset within the file
-			long offsetInFile = totalOffset - outputFile.getFirstByteOffset();
-			
-			// Determine how many bytes still belong in this file
-			int bytesToWrite = Math.min(remainingBytesToWrite, (int) (outputFile.getSize() - offsetInFile));
-			
-			// Check if the calculated offset is within the file
-			if (offsetInFile < 0) {
-				throw new IOException("Cannot seek to position: " + offsetInFile);
-			}
-			
-			// Write the actual bytes
-			synchronized (outputFile.FILE_LOCK) {
-				RandomAccessFile file = outputFile.getFileAcces();
-				file.seek(offsetInFile);
-				file.write(blockData, dataOffset, bytesToWrite);
-				remainingBytesToWrite -= bytesToWrite;
-			}
-			
-			// Mark the block as done
-			block.setDone(true);
+	}
+	
+	/**
+	 * Writes a bit of data of this piece into the correct file(s)
+	 * 
+	 * @param offset The offset in the piece
+	 * @param data The buffer which contains the data
+	 * @param dataOffset The offset within the buffer
+	 * @param length The amount of bytes to write
+	 * @throws TorrentException If the data is not within any of the files in this torrent
+	 */
+	public void writePiece(int offset, byte[] data, int dataOffset, int length) throws TorrentException, IOException {
+		for (FileRegion region : getFileRegions(offset, length)) {
+			region.getFileInfo().getStorage().write(region.getOffset(), data, dataOffset, region.getLength());
+			dataOffset += region.getLength();
 		}
 	}
 
@@ -313,6 +339,16 @@ public class Piece implements Comparable<Piece> {
 		}
 	}
 
+	/**
+	 * Gets the offset of the specified block within this piece
+	 * 
+	 * @param blockIndex The index of the block
+	 * @return The offset in bytes
+	 */
+	public int getBlockOffset(int blockIndex) {
+		return blockIndex * files.getBlockSize();
+	}
+
 	/**
 	 * Gets the size of the specified block
 	 * 
@@ -0,0 +1,290 @@
+package torrent.download.files;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import torrent.TorrentException;
+
+/**
+ * A write-back cache which keeps the blocks of pieces which are being downloaded in memory.<br/>
+ * When a piece completes its hash is checked on the data in memory, a matching piece is then written to the disk in a
+ * single write. A failing piece never reaches the disk, the blocks which get downloaded again simply replace the
+ * cached ones.<br/>
+ * The cache is bounded by its capacity, when a new piece doesn't fit the least recently used pieces are written to the
+ * disk and dropped from the cache. A piece which has been partially written that way will be checked from the disk.<br/>
+ * Pieces are only taken out of the cache while holding the lock, the writes to the disk happen after releasing it so
+ * that a slow disk doesn't block the other pieces.
+ */
+public class PieceCache {
+
+	private final Object CACHE_LOCK = new Object();
+
+	/**
+	 * The maximum amount of bytes which the cached pieces may use
+	 */
+	private final long capacity;
+
+	/**
+	 * The amount of bytes which the cached pieces use
+	 */
+	private long usedBytes;
+
+	/**
+	 * The cached pieces in the order in which they were last used
+	 */
+	private LinkedHashMap<Piece, CachedPiece> pieces;
+
+	/**
+	 * The pieces which have been dropped from the cache and are being written to the disk
+	 */
+	private List<CachedPiece> flushingPieces;
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param capacity The maximum amount of bytes to keep in memory, 0 disables the cache
+	 */
+	public PieceCache(long capacity) {
+		this.capacity = capacity;
+		pieces = new LinkedHashMap<>(16, 0.75f, true);
+		flushingPieces = new ArrayList<>();
+	}
+
+	/**
+	 * Stores the block in the cache, or directly on the disk if the piece can't be cached
+	 *
+	 * @param piece The piece which contains the block
+	 * @param blockIndex The index of the block to store
+	 * @param blockData The data of the block
+	 * @throws TorrentException If the size of the data is not the size of the block
+	 * @throws IOException When the block or the pieces which had to make room for it can't be written
+	 */
+	public void storeBlock(Piece piece, int blockIndex, byte[] blockData) throws TorrentException, IOException {
+		piece.checkBlockSize(blockIndex, blockData);
+
+		List<CachedPiece> evictedPieces = new ArrayList<>();
+		boolean isCached = false;
+		synchronized (CACHE_LOCK) {
+			CachedPiece cachedPiece = pieces.get(piece);
+			if (cachedPiece == null && reserve(piece.getSize(), evictedPieces)) {
+				cachedPiece = new CachedPiece(piece);
+				pieces.put(piece, cachedPiece);
+			}
+
+			if (cachedPiece != null) {
+				System.arraycopy(blockData, 0, cachedPiece.data, piece.getBlockOffset(blockIndex), blockData.length);
+				cachedPiece.cachedBlocks.set(blockIndex);
+				piece.setDone(blockIndex);
+				isCached = true;
+			}
+		}
+
+		flush(evictedPieces);
+		if (!isCached) {
+			piece.storeBlock(blockIndex, blockData);
+		}
+	}
+
+	/**
+	 * Checks the hash of a completed piece. If the piece is cached the hash is checked on the data in memory and a
+	 * matching piece gets written to the disk.
+	 *
+	 * @param piece The piece to check
+	 * @return hashMatched ? true : false
+	 * @throws TorrentException If the piece is not within any of the files in this torrent
+	 * @throws IOException When the piece can't be read or written
+	 */
+	public boolean checkHash(Piece piece) throws TorrentException, IOException {
+		CachedPiece cachedPiece;
+		synchronized (CACHE_LOCK) {
+			// Blocks which have been evicted but are not on the disk yet would fail the check
+			while (isFlushing(piece)) {
+				try {
+					CACHE_LOCK.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(String.format("Interrupted while piece %d is being written", piece.getIndex()));
+				}
+			}
+			cachedPiece = pieces.remove(piece);
+			if (cachedPiece != null) {
+				usedBytes -= cachedPiece.data.length;
+			}
+		}
+
+		if (cachedPiece == null) {
+			return piece.checkHash();
+		}
+
+		if (cachedPiece.cachedBlocks.cardinality() < piece.getBlockCount()) {
+			// Some blocks have been written to the disk already, complete the piece on the disk
+			cachedPiece.flush();
+			return piece.checkHash();
+		}
+
+		if (!piece.checkHash(cachedPiece.data)) {
+			// Keep the blocks, the ones which get downloaded again will overwrite the faulty data
+			putBack(cachedPiece);
+			return false;
+		}
+
+		try {
+			piece.writePiece(0, cachedPiece.data, 0, cachedPiece.data.length);
+		} catch (TorrentException | IOException e) {
+			putBack(cachedPiece);
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the amount of bytes which are used by cached pieces
+	 *
+	 * @return The amount of bytes
+	 */
+	public long getUsedBytes() {
+		synchronized (CACHE_LOCK) {
+			return usedBytes;
+		}
+	}
+
+	/**
+	 * Returns a piece which has been taken out for its hash check to the cache
+	 *
+	 * @param cachedPiece The piece to return
+	 * @throws IOException When a piece which had to make room for it can't be written
+	 */
+	private void putBack(CachedPiece cachedPiece) throws TorrentException, IOException {
+		List<CachedPiece> evictedPieces = new ArrayList<>();
+		boolean isCached = false;
+		synchronized (CACHE_LOCK) {
+			if (reserve(cachedPiece.data.length, evictedPieces)) {
+				pieces.put(cachedPiece.piece, cachedPiece);
+				isCached = true;
+			}
+		}
+
+		flush(evictedPieces);
+		if (!isCached) {
+			cachedPiece.flush();
+		}
+	}
+
+	/**
+	 * Makes room for a piece by taking the least recently used pieces out of the cache. The caller has to hold the lock
+	 * and write the evicted pieces with {@link #flush(List)} after releasing it.
+	 *
+	 * @param size The amount of bytes which are needed
+	 * @param evictedPieces The list to which the pieces which have been taken out are added
+	 * @return true if the bytes have been reserved
+	 */
+	private boolean reserve(int size, List<CachedPiece> evictedPieces) {
+		if (size > capacity) {
+			return false;
+		}
+
+		Iterator<CachedPiece> iterator = pieces.values().iterator();
+		while (usedBytes + size > capacity && iterator.hasNext()) {
+			CachedPiece eldest = iterator.next();
+			iterator.remove();
+			usedBytes -= eldest.data.length;
+			evictedPieces.add(eldest);
+			flushingPieces.add(eldest);
+		}
+
+		usedBytes += size;
+		return true;
+	}
+
+	/**
+	 * Writes the evicted pieces to the disk. All pieces are written even if one fails, as they are no longer in the cache.
+	 *
+	 * @param evictedPieces The pieces which have been taken out by {@link #reserve(int, List)}
+	 * @throws IOException When a piece can't be written, its blocks have been reset
+	 */
+	private void flush(List<CachedPiece> evictedPieces) throws TorrentException, IOException {
+		Exception failure = null;
+		for (CachedPiece evictedPiece : evictedPieces) {
+			try {
+				evictedPiece.flush();
+			} catch (TorrentException | IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			} finally {
+				synchronized (CACHE_LOCK) {
+					flushingPieces.remove(evictedPiece);
+					CACHE_LOCK.notifyAll();
+				}
+			}
+		}
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure != null) {
+			throw (TorrentException) failure;
+		}
+	}
+
+	private boolean isFlushing(Piece piece) {
+		for (CachedPiece flushingPiece : flushingPieces) {
+			if (flushingPiece.piece == piece) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The blocks of a single piece which are in memory
+	 */
+	private static class CachedPiece {
+
+		private final Piece piece;
+
+		/**
+		 * The data of the entire piece
+		 */
+		private final byte[] data;
+
+		/**
+		 * The blocks of which the data is in {@link #data}
+		 */
+		private final BitSet cachedBlocks;
+
+		public CachedPiece(Piece piece) {
+			this.piece = piece;
+			data = new byte[piece.getSize()];
+			cachedBlocks = new BitSet(piece.getBlockCount());
+		}
+
+		/**
+		 * Writes the cached blocks to the disk, adjacent blocks are written at once.<br/>
+		 * If writing fails the blocks are reset so that they will be downloaded again.
+		 */
+		public void flush() throws TorrentException, IOException {
+			for (int start = cachedBlocks.nextSetBit(0); start >= 0; start = cachedBlocks.nextSetBit(start)) {
+				int end = cachedBlocks.nextClearBit(start);
+				int offset = piece.getBlockOffset(start);
+				int length = (end == piece.getBlockCount() ? data.length : piece.getBlockOffset(end)) - offset;
+				try {
+					piece.writePiece(offset, data, offset, length);
+				} catch (TorrentException | IOException e) {
+					for (int i = start; i >= 0; i = cachedBlocks.nextSetBit(i + 1)) {
+						piece.reset(i);
+					}
+					throw e;
+				}
+				start = end;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package torrent.download.files;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import torrent.TorrentException;
+
+/**
+ * Calculates the SHA-1 hash of a piece while its blocks are being stored.<br/>
+ * Blocks are fed to the digest in order. A block which arrives before the blocks in front of it is held until they
+ * arrived, at most {@link #MAX_HELD_BLOCKS} at a time. When the piece completes only the bytes which could not be fed
+ * yet have to be read back from the disk.
+ */
+class PieceHasher {
+
+	/**
+	 * The maximum amount of out of order blocks which are held in memory
+	 */
+	private static final int MAX_HELD_BLOCKS = 8;
+
+	private final Piece piece;
+
+	/**
+	 * The digest of the blocks in front of {@link #nextBlock}, <code>null</code> if no block has been fed yet
+	 */
+	private MessageDigest digest;
+
+	/**
+	 * The index of the next block which will be fed to the digest
+	 */
+	private int nextBlock;
+
+	/**
+	 * The blocks which arrived out of order by their index
+	 */
+	private Map<Integer, byte[]> heldBlocks;
+
+	public PieceHasher(Piece piece) {
+		this.piece = piece;
+		heldBlocks = new HashMap<>();
+	}
+
+	/**
+	 * Notifies the hasher that a block has been stored
+	 *
+	 * @param blockIndex The index of the block
+	 * @param blockData The data of the block
+	 */
+	public synchronized void blockStored(int blockIndex, byte[] blockData) {
+		if (blockIndex < nextBlock) {
+			// The block got stored again, the digest no longer matches the data on the disk
+			reset();
+		}
+
+		if (blockIndex > nextBlock) {
+			if (heldBlocks.size() < MAX_HELD_BLOCKS) {
+				heldBlocks.put(blockIndex, blockData);
+			}
+			return;
+		}
+
+		if (digest == null) {
+			digest = createDigest();
+		}
+
+		digest.update(blockData);
+		++nextBlock;
+		byte[] heldBlock;
+		while ((heldBlock = heldBlocks.remove(nextBlock)) != null) {
+			digest.update(heldBlock);
+			++nextBlock;
+		}
+	}
+
+	/**
+	 * Notifies the hasher that a block has been reset
+	 *
+	 * @param blockIndex The index of the block
+	 */
+	public synchronized void blockReset(int blockIndex) {
+		if (blockIndex < nextBlock) {
+			reset();
+		} else {
+			heldBlocks.remove(blockIndex);
+		}
+	}
+
+	/**
+	 * Completes the hash of the piece, the bytes which have not been fed yet are read from the disk. Afterwards the
+	 * hasher starts over.
+	 *
+	 * @return The hash of the piece
+	 * @throws TorrentException If the piece is not within any of the files in this torrent
+	 * @throws IOException When the remaining bytes can't be read
+	 */
+	public synchronized byte[] digest() throws TorrentException, IOException {
+		try {
+			if (digest == null) {
+				digest = createDigest();
+			}
+
+			int hashedBytes = (nextBlock >= piece.getBlockCount()) ? piece.getSize() : piece.getBlockOffset(nextBlock);
+			if (hashedBytes < piece.getSize()) {
+				digest.update(piece.loadPiece(hashedBytes, piece.getSize() - hashedBytes));
+			}
+			return digest.digest();
+		} finally {
+			reset();
+		}
+	}
+
+	private void reset() {
+		digest = null;
+		nextBlock = 0;
+		heldBlocks.clear();
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported.", e);
+		}
+	}
+
+}
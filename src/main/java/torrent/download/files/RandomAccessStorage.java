@@ -0,0 +1,59 @@
+package torrent.download.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A storage which seeks within a {@link RandomAccessFile} for every access
+ */
+public class RandomAccessStorage implements Storage {
+
+	/**
+	 * The link between the file on the harddrive
+	 */
+	private final RandomAccessFile fileAccess;
+
+	/**
+	 * A lock to prevent concurrent seeks within the file
+	 */
+	private final Object FILE_LOCK = new Object();
+
+	public RandomAccessStorage(File file) throws IOException {
+		fileAccess = new RandomAccessFile(file, "rw");
+	}
+
+	@Override
+	public void read(long position, byte[] buffer, int offset, int length) throws IOException {
+		synchronized (FILE_LOCK) {
+			fileAccess.seek(position);
+			fileAccess.readFully(buffer, offset, length);
+		}
+	}
+
+	@Override
+	public void write(long position, byte[] data, int offset, int length) throws IOException {
+		synchronized (FILE_LOCK) {
+			fileAccess.seek(position);
+			fileAccess.write(data, offset, length);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}<br/>
+	 * The positional methods of the channel don't affect the position which is used by this storage
+	 */
+	@Override
+	public FileChannel getChannel() {
+		return fileAccess.getChannel();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (FILE_LOCK) {
+			fileAccess.close();
+		}
+	}
+
+}
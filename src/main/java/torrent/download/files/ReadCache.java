@@ -0,0 +1,169 @@
+package torrent.download.files;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import torrent.TorrentException;
+
+/**
+ * A cache of the data of pieces which are being uploaded.<br/>
+ * Peers request the blocks of a piece one after another, so a miss reads a whole window of the piece at once and the
+ * following requests are served from memory. Windows are aligned within their piece and default to the entire piece.
+ * The cache is bounded by its capacity, the least recently used windows are dropped first.<br/>
+ * Only pieces which have been verified may be read through the cache as the cached data is never invalidated.
+ */
+public class ReadCache {
+
+	private final Object CACHE_LOCK = new Object();
+
+	/**
+	 * The maximum amount of bytes which the cached windows may use
+	 */
+	private final long capacity;
+
+	/**
+	 * The size of the windows, 0 to read entire pieces
+	 */
+	private final int readAhead;
+
+	/**
+	 * The amount of bytes which the cached windows use
+	 */
+	private long usedBytes;
+
+	/**
+	 * The cached windows in the order in which they were last used
+	 */
+	private LinkedHashMap<Window, byte[]> windows;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param capacity The maximum amount of bytes to keep in memory, 0 disables the cache
+	 * @param readAhead The amount of bytes to read on a miss, 0 reads the entire piece
+	 */
+	public ReadCache(long capacity, int readAhead) {
+		this.capacity = capacity;
+		this.readAhead = readAhead;
+		windows = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Reads a bit of data of a piece
+	 *
+	 * @param piece The piece to read from
+	 * @param offset The offset in the piece
+	 * @param length The amount of bytes to read
+	 * @return The read bytes
+	 * @throws TorrentException If the data is not within any of the files in this torrent
+	 * @throws IOException When the data can't be read
+	 */
+	public byte[] read(Piece piece, int offset, int length) throws TorrentException, IOException {
+		int windowSize = (readAhead <= 0) ? piece.getSize() : Math.min(readAhead, piece.getSize());
+		if (windowSize > capacity) {
+			synchronized (CACHE_LOCK) {
+				++misses;
+			}
+			return piece.loadPiece(offset, length);
+		}
+
+		byte[] data = new byte[length];
+		int copiedBytes = 0;
+		while (copiedBytes < length) {
+			int windowIndex = (offset + copiedBytes) / windowSize;
+			int windowOffset = windowIndex * windowSize;
+			byte[] window = getWindow(piece, windowIndex, windowOffset, Math.min(windowSize, piece.getSize() - windowOffset));
+			int bytes = Math.min(length - copiedBytes, window.length - (offset + copiedBytes - windowOffset));
+			System.arraycopy(window, offset + copiedBytes - windowOffset, data, copiedBytes, bytes);
+			copiedBytes += bytes;
+		}
+		return data;
+	}
+
+	private byte[] getWindow(Piece piece, int windowIndex, int windowOffset, int windowSize) throws TorrentException, IOException {
+		Window key = new Window(piece, windowIndex);
+		synchronized (CACHE_LOCK) {
+			byte[] window = windows.get(key);
+			if (window != null) {
+				++hits;
+				return window;
+			}
+			++misses;
+		}
+
+		// Read without holding the lock so other pieces can still be served
+		byte[] window = piece.loadPiece(windowOffset, windowSize);
+
+		synchronized (CACHE_LOCK) {
+			if (windows.put(key, window) == null) {
+				usedBytes += window.length;
+			}
+
+			Iterator<byte[]> iterator = windows.values().iterator();
+			while (usedBytes > capacity && iterator.hasNext()) {
+				usedBytes -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Gets the amount of reads which have been served from memory
+	 *
+	 * @return The amount of cache hits
+	 */
+	public long getHits() {
+		synchronized (CACHE_LOCK) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Gets the amount of reads which had to go to the disk
+	 *
+	 * @return The amount of cache misses
+	 */
+	public long getMisses() {
+		synchronized (CACHE_LOCK) {
+			return misses;
+		}
+	}
+
+	/**
+	 * The key of a window of a piece
+	 */
+	private static class Window {
+
+		private final Piece piece;
+
+		private final int index;
+
+		public Window(Piece piece, int index) {
+			this.piece = piece;
+			this.index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(piece) * 31 + index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Window)) {
+				return false;
+			}
+
+			Window other = (Window) obj;
+			return piece == other.piece && index == other.index;
+		}
+
+	}
+
+}
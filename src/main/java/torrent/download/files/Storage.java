@@ -0,0 +1,50 @@
+package torrent.download.files;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * The backend which holds the bytes of a single file of a torrent.<br/>
+ * Implementations must be safe to use from multiple threads at once, the disk executor runs jobs on different parts of
+ * the same file in parallel.
+ */
+public interface Storage {
+
+	/**
+	 * Reads bytes from the file
+	 * 
+	 * @param position The offset within the file of the first byte
+	 * @param buffer The buffer to read into
+	 * @param offset The offset within the buffer
+	 * @param length The amount of bytes to read
+	 * @throws IOException When the bytes can't be read
+	 */
+	public void read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Writes bytes into the file
+	 * 
+	 * @param position The offset within the file of the first byte
+	 * @param data The buffer which contains the bytes
+	 * @param offset The offset within the buffer
+	 * @param length The amount of bytes to write
+	 * @throws IOException When the bytes can't be written
+	 */
+	public void write(long position, byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Gets the channel of the file on the harddrive<br/>
+	 * The channel is used to send regions of the file directly to a socket
+	 * 
+	 * @return The channel of the file
+	 */
+	public FileChannel getChannel();
+
+	/**
+	 * Releases the file on the harddrive, the storage can't be used afterwards
+	 * 
+	 * @throws IOException When the file can't be closed
+	 */
+	public void close() throws IOException;
+
+}
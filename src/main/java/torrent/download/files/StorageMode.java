@@ -0,0 +1,50 @@
+package torrent.download.files;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.johnnei.utils.config.Config;
+
+/**
+ * The ways in which the files of a torrent can be accessed. Configured by <code>disk-storage</code>
+ */
+public enum StorageMode {
+
+	/**
+	 * Seeks and reads/writes on a {@link java.io.RandomAccessFile} (<code>file</code>)
+	 */
+	RandomAccess,
+	/**
+	 * Maps the files into memory (<code>mapped</code>)
+	 */
+	Mapped;
+
+	/**
+	 * Gets the mode which has been configured
+	 * @return The configured mode
+	 */
+	public static StorageMode getConfigured() {
+		// Mapping is opt-in as a fault while accessing the mapped memory is harder to recover from
+		if ("mapped".equalsIgnoreCase(Config.getConfig().getString("disk-storage"))) {
+			return Mapped;
+		}
+
+		return RandomAccess;
+	}
+
+	/**
+	 * Opens the storage for a file in this mode
+	 * @param file The file on the harddrive
+	 * @param size The size of the file in the torrent
+	 * @return The storage of the file
+	 * @throws IOException When the file can't be opened
+	 */
+	public Storage open(File file, long size) throws IOException {
+		if (this == RandomAccess) {
+			return new RandomAccessStorage(file);
+		}
+
+		return new MappedStorage(file, size);
+	}
+
+}
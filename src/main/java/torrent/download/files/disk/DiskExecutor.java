@@ -0,0 +1,300 @@
+package torrent.download.files.disk;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.johnnei.utils.ConsoleLogger;
+
+import torrent.download.Torrent;
+
+/**
+ * Runs the {@link DiskJob}s of all torrents on a shared pool of worker threads.<br/>
+ * Jobs with the same ordering key (see {@link DiskJob#getOrderingKey(Torrent)}) form a strand which runs in submission
+ * order, one job at a time, so a hash check never overtakes the writes of its piece. Strands with different keys run in
+ * parallel, the strand of which the next job has the highest priority is picked first.<br/>
+ * Submitting never blocks as the jobs are mostly submitted from the selector threads. Instead the peers stop reading
+ * while the executor is saturated (see {@link #isSaturated()}), which keeps the network from buffering more data than
+ * the disk can handle.
+ */
+public class DiskExecutor {
+
+	/**
+	 * The amount of jobs which are queued or running at which the executor is saturated
+	 */
+	private static final int MAX_QUEUED_JOBS = 1024;
+
+	private final Object QUEUE_LOCK = new Object();
+
+	private final Logger log;
+
+	/**
+	 * The strands which have jobs, by their ordering key
+	 */
+	private Map<Object, Strand> strands;
+
+	/**
+	 * The strands which have jobs and are not being run by a worker
+	 */
+	private PriorityQueue<Strand> readyStrands;
+
+	/**
+	 * The amount of jobs which are queued or running
+	 */
+	private int queuedJobs;
+
+	/**
+	 * The order in which the strands became ready, breaks ties between equal priorities
+	 */
+	private long readySequence;
+
+	/**
+	 * The amount of jobs which have completed
+	 */
+	private LongAdder completedJobs;
+
+	/**
+	 * The summed time in nanoseconds between submitting and completing the jobs
+	 */
+	private LongAdder totalLatency;
+
+	/**
+	 * Submits the jobs which are retried after a delay
+	 */
+	private ScheduledExecutorService retryScheduler;
+
+	/**
+	 * Creates the executor and starts its worker threads
+	 * @param threadCount The amount of worker threads
+	 */
+	public DiskExecutor(int threadCount) {
+		log = ConsoleLogger.createLogger("Disk I/O", Level.INFO);
+		strands = new HashMap<>();
+		readyStrands = new PriorityQueue<>();
+		completedJobs = new LongAdder();
+		totalLatency = new LongAdder();
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Disk retry scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		for (int i = 0; i < threadCount; i++) {
+			Thread worker = new Thread(this::work, String.format("Disk worker #%d", i));
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Queues a job
+	 * @param torrent The torrent on which the job operates
+	 * @param job The job to run
+	 * @param onComplete The callback which is invoked on the worker thread after the job has been processed
+	 */
+	public void submit(Torrent torrent, DiskJob job, Runnable onComplete) {
+		Task task = new Task(torrent, job, onComplete);
+		Object key = job.getOrderingKey(torrent);
+
+		synchronized (QUEUE_LOCK) {
+			++queuedJobs;
+			Strand strand = strands.get(key);
+			if (strand == null) {
+				strand = new Strand(key);
+				strands.put(key, strand);
+			}
+
+			strand.tasks.addLast(task);
+			if (!strand.isQueuedOrRunning) {
+				markReady(strand);
+			}
+		}
+	}
+
+	/**
+	 * Queues a job after a delay
+	 * @param torrent The torrent on which the job operates
+	 * @param job The job to run
+	 * @param onComplete The callback which is invoked on the worker thread after the job has been processed
+	 * @param delay The time in milliseconds to wait before the job gets queued
+	 */
+	public void submit(Torrent torrent, DiskJob job, Runnable onComplete, long delay) {
+		retryScheduler.schedule(() -> submit(torrent, job, onComplete), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void markReady(Strand strand) {
+		strand.isQueuedOrRunning = true;
+		strand.priority = strand.tasks.peekFirst().job.getPriority();
+		strand.readyOrder = readySequence++;
+		readyStrands.add(strand);
+		QUEUE_LOCK.notifyAll();
+	}
+
+	/**
+	 * Runs the strands until the thread gets interrupted
+	 */
+	private void work() {
+		while (true) {
+			Strand strand;
+			Task task;
+			synchronized (QUEUE_LOCK) {
+				while (readyStrands.isEmpty()) {
+					try {
+						QUEUE_LOCK.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				strand = readyStrands.poll();
+				task = strand.tasks.pollFirst();
+			}
+
+			try {
+				task.job.process(task.torrent);
+			} catch (Throwable e) {
+				// An error such as an I/O fault of a mapped file may not take down the worker or leave the strand stuck
+				log.log(Level.WARNING, String.format("%s failed: %s", task.job.getClass().getSimpleName(), e.getMessage()), e);
+			} finally {
+				try {
+					// The callback releases what the submitter holds for the job, so it also has to run when the job failed
+					if (task.onComplete != null) {
+						task.onComplete.run();
+					}
+				} finally {
+					complete(strand, task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the queue slot of the task and hands the strand back to the ready queue if it has more tasks
+	 * @param strand The strand of which the task was run
+	 * @param task The task which has been run
+	 */
+	private void complete(Strand strand, Task task) {
+		completedJobs.increment();
+		totalLatency.add(System.nanoTime() - task.submitTime);
+
+		synchronized (QUEUE_LOCK) {
+			--queuedJobs;
+			if (strand.tasks.isEmpty()) {
+				strand.isQueuedOrRunning = false;
+				strands.remove(strand.key);
+			} else {
+				markReady(strand);
+			}
+		}
+	}
+
+	/**
+	 * Gets the amount of jobs which are waiting or running
+	 * @return The queue depth
+	 */
+	public int getQueueDepth() {
+		synchronized (QUEUE_LOCK) {
+			return queuedJobs;
+		}
+	}
+
+	/**
+	 * Checks if the amount of queued jobs has reached the bound. The peers should not read new blocks or queue new
+	 * uploads until this returns <code>false</code> again.
+	 * @return <code>true</code> when no new jobs should be submitted
+	 */
+	public boolean isSaturated() {
+		return getQueueDepth() >= MAX_QUEUED_JOBS;
+	}
+
+	/**
+	 * Gets the average time between submitting a job and its completion
+	 * @return The latency in milliseconds
+	 */
+	public double getAverageLatency() {
+		long completed = completedJobs.sum();
+		if (completed == 0) {
+			return 0;
+		}
+
+		return (double) totalLatency.sum() / completed / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Gets the amount of jobs which have completed
+	 * @return The amount of jobs
+	 */
+	public long getCompletedJobs() {
+		return completedJobs.sum();
+	}
+
+	/**
+	 * A job with the context it was submitted in
+	 */
+	private static class Task {
+
+		private final Torrent torrent;
+
+		private final DiskJob job;
+
+		private final Runnable onComplete;
+
+		/**
+		 * The {@link System#nanoTime()} at which the job was submitted
+		 */
+		private final long submitTime;
+
+		public Task(Torrent torrent, DiskJob job, Runnable onComplete) {
+			this.torrent = torrent;
+			this.job = job;
+			this.onComplete = onComplete;
+			submitTime = System.nanoTime();
+		}
+
+	}
+
+	/**
+	 * The jobs of a single ordering key which have to run one after another
+	 */
+	private static class Strand implements Comparable<Strand> {
+
+		private final Object key;
+
+		private final ArrayDeque<Task> tasks;
+
+		/**
+		 * If the strand is in the ready queue or one of its jobs is running
+		 */
+		private boolean isQueuedOrRunning;
+
+		/**
+		 * The priority of the first job at the time the strand became ready
+		 */
+		private int priority;
+
+		private long readyOrder;
+
+		public Strand(Object key) {
+			this.key = key;
+			tasks = new ArrayDeque<>();
+		}
+
+		@Override
+		public int compareTo(Strand other) {
+			if (priority != other.priority) {
+				// Highest priority first
+				return Integer.compare(other.priority, priority);
+			}
+
+			return Long.compare(readyOrder, other.readyOrder);
+		}
+
+	}
+
+}
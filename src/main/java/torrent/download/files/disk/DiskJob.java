@@ -1,13 +1,29 @@
 package torrent.download.files.disk;
 
+import torrent.TorrentException;
 import torrent.download.Torrent;
 
-public abstract class DiskJob implements Comparable<DiskJob> {
+public abstract class DiskJob {
 
 	public static final int NORMAL = 0;
 	public static final int HIGH = 3;
 	public static final int CRITICAL = 10;
 
+	/**
+	 * The amount of times a job gets retried after an I/O error before it fails
+	 */
+	private static final int MAX_RETRIES = 5;
+
+	/**
+	 * The delay in milliseconds before the first retry, it doubles on every next retry
+	 */
+	private static final int RETRY_DELAY = 100;
+
+	/**
+	 * The amount of times this job has been retried
+	 */
+	private int retries;
+
 	/**
 	 * Processes the disk job
 	 */
@@ -20,9 +36,49 @@ public abstract class DiskJob implements Comparable<DiskJob> {
 	 */
 	public abstract int getPriority();
 
-	@Override
-	public int compareTo(DiskJob job) {
-		return getPriority() - job.getPriority();
+	/**
+	 * Queues the job again after a delay which backs off on every retry
+	 * 
+	 * @param torrent The torrent on which the job operates
+	 * @return <code>false</code> when the job has been retried too often and should fail instead
+	 */
+	protected boolean retry(Torrent torrent) {
+		if (retries >= MAX_RETRIES) {
+			return false;
+		}
+
+		torrent.addDiskJob(this, RETRY_DELAY << retries);
+		++retries;
+		return true;
+	}
+
+	/**
+	 * The key of which all jobs run in the order they were submitted. By default all jobs of a torrent are ordered.
+	 * 
+	 * @param torrent The torrent on which the job operates
+	 * @return The ordering key
+	 */
+	public Object getOrderingKey(Torrent torrent) {
+		return torrent;
+	}
+
+	/**
+	 * Orders the job with the other jobs on the file in which the piece starts.<br/>
+	 * A piece which spans several files is not ordered with the jobs on its other files. That is not needed: the
+	 * ordering only has to keep the jobs of a single piece in order, and those all share the file in which the piece
+	 * starts. Jobs of different pieces access disjoint bytes, which the {@link torrent.download.files.Storage} allows to
+	 * happen in parallel, even within the same file.
+	 * 
+	 * @param torrent The torrent on which the job operates
+	 * @param pieceIndex The piece on which the job operates
+	 * @return The ordering key
+	 */
+	protected Object getPieceOrderingKey(Torrent torrent, int pieceIndex) {
+		try {
+			return torrent.getFiles().getFileForBytes(pieceIndex, 0, 0);
+		} catch (TorrentException e) {
+			return torrent;
+		}
 	}
 
 }
@@ -27,7 +27,7 @@ public class DiskJobCheckHash extends DiskJob {
 	@Override
 	public void process(Torrent torrent) {
 		try {
-			if (torrent.getFiles().getPiece(pieceIndex).checkHash()) {
+			if (torrent.getPieceCache().checkHash(torrent.getFiles().getPiece(pieceIndex))) {
 				if (torrent.getDownloadStatus() == Torrent.STATE_DOWNLOAD_DATA) {
 					torrent.getFiles().havePiece(pieceIndex);
 					torrent.broadcastMessage(new MessageHave(pieceIndex));
@@ -41,10 +41,18 @@ public class DiskJobCheckHash extends DiskJob {
 			torrent.getLogger().warning("Hash check error on piece: " + pieceIndex + ", Err: " + e.getMessage());
 			torrent.getFiles().getPiece(pieceIndex).hashFail();
 		} catch (IOException e) {
-			torrent.getLogger().warning(String.format("IO error while checking hash on piece %d: %s. Requeuing task.", pieceIndex, e.getMessage()));
-			return;
+			if (retry(torrent)) {
+				torrent.getLogger().warning(String.format("IO error while checking hash on piece %d: %s. Requeuing task.", pieceIndex, e.getMessage()));
+			} else {
+				torrent.getLogger().severe(String.format("Failed to check hash on piece %d: %s", pieceIndex, e.getMessage()));
+				torrent.getFiles().getPiece(pieceIndex).hashFail();
+			}
 		}
-		torrent.finishHaltingOperations(1);
+	}
+
+	@Override
+	public Object getOrderingKey(Torrent torrent) {
+		return getPieceOrderingKey(torrent, pieceIndex);
 	}
 
 	@Override
@@ -2,10 +2,14 @@ package torrent.download.files.disk;
 
 import java.io.IOException;
 
+import org.johnnei.utils.config.Config;
+
 import torrent.TorrentException;
 import torrent.download.Torrent;
+import torrent.download.files.Piece;
 import torrent.download.peer.Peer;
 import torrent.protocol.messages.MessageBlock;
+import torrent.protocol.messages.MessageFileBlock;
 
 public class DiskJobSendBlock extends DiskJob {
 
@@ -26,20 +30,35 @@ public class DiskJobSendBlock extends DiskJob {
 
 	@Override
 	public void process(Torrent torrent) {
-		byte[] data = new byte[0];
 		try {
-			data = torrent.getFiles().getPiece(pieceIndex).loadPiece(offset, length);
-			peer.getBitTorrentSocket().queueMessage(new MessageBlock(pieceIndex, offset, data));
+			Piece piece = torrent.getFiles().getPiece(pieceIndex);
+			if (Config.getConfig().getBoolean("upload-zero_copy") && peer.getBitTorrentSocket().canTransferFiles()) {
+				// Let the socket send the data straight from the files
+				peer.getBitTorrentSocket().queueMessage(new MessageFileBlock(pieceIndex, offset, length, piece.getFileRegions(offset, length)));
+			} else {
+				byte[] data = torrent.getReadCache().read(piece, offset, length);
+				peer.getBitTorrentSocket().queueMessage(new MessageBlock(pieceIndex, offset, data));
+			}
 			peer.addToPendingMessages(-1);
-			torrent.addUploadedBytes(data.length);
+			torrent.addUploadedBytes(length);
 		} catch (TorrentException te) {
 			torrent.getLogger().warning(String.format("Can't satify peer request for block: %s", te.getMessage()));
 		} catch (IOException e) {
-			torrent.getLogger().warning(String.format("IO error while reading block request: %s. Requeueing task.", e.getMessage()));
-			torrent.addDiskJob(this);
+			if (retry(torrent)) {
+				torrent.getLogger().warning(String.format("IO error while reading block request: %s. Requeueing task.", e.getMessage()));
+			} else {
+				// Drop the request so the next ones of the peer can still be served
+				torrent.getLogger().severe(String.format("Failed to read block request: %s", e.getMessage()));
+				peer.addToPendingMessages(-1);
+			}
 		}
 	}
 
+	@Override
+	public Object getOrderingKey(Torrent torrent) {
+		return getPieceOrderingKey(torrent, pieceIndex);
+	}
+
 	@Override
 	public int getPriority() {
 		return NORMAL;
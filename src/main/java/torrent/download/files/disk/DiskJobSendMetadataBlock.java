@@ -28,8 +28,11 @@ public class DiskJobSendMetadataBlock extends DiskJob {
 			MessageExtension extendedMessage = new MessageExtension(peer.getExtensions().getIdFor(UTMetadata.NAME), mData);
 			peer.getBitTorrentSocket().queueMessage(extendedMessage);
 		} catch (IOException e) {
-			torrent.getLogger().warning(String.format("Reading metadata block %d failed, requeueing read job. %s", blockIndex, e.getMessage()));
-			torrent.addDiskJob(this);
+			if (retry(torrent)) {
+				torrent.getLogger().warning(String.format("Reading metadata block %d failed, requeueing read job. %s", blockIndex, e.getMessage()));
+			} else {
+				torrent.getLogger().severe(String.format("Reading metadata block %d failed: %s", blockIndex, e.getMessage()));
+			}
 		}
 	}
 
@@ -20,20 +20,27 @@ public class DiskJobStoreBlock extends DiskJob {
 	@Override
 	public void process(Torrent torrent) {
 		try {
-			torrent.getFiles().getPiece(pieceIndex).storeBlock(blockIndex, data);
+			torrent.getPieceCache().storeBlock(torrent.getFiles().getPiece(pieceIndex), blockIndex, data);
 			if (torrent.getFiles().getPiece(pieceIndex).isDone()) {
-				torrent.addToHaltingOperations(1);
 				torrent.addDiskJob(new DiskJobCheckHash(pieceIndex));
 			}
 		} catch (TorrentException e) {
 			torrent.getLogger().warning(e.getMessage());
 			torrent.getFiles().getPiece(pieceIndex).reset(blockIndex);
 		} catch (IOException e) {
-			torrent.getLogger().warning(String.format("IO error while saving piece %d block %d: %s. Requeueing write task.", pieceIndex, blockIndex, e.getMessage()));
-			torrent.addDiskJob(this);
-			return;
+			if (retry(torrent)) {
+				torrent.getLogger().warning(String.format("IO error while saving piece %d block %d: %s. Requeueing write task.", pieceIndex, blockIndex, e.getMessage()));
+			} else {
+				// Drop the block, it will be downloaded again
+				torrent.getLogger().severe(String.format("Failed to save piece %d block %d: %s", pieceIndex, blockIndex, e.getMessage()));
+				torrent.getFiles().getPiece(pieceIndex).reset(blockIndex);
+			}
 		}
-		torrent.finishHaltingOperations(1);
+	}
+
+	@Override
+	public Object getOrderingKey(Torrent torrent) {
+		return getPieceOrderingKey(torrent, pieceIndex);
 	}
 
 	@Override
@@ -5,11 +5,14 @@ import java.util.logging.Logger;
 
 import org.johnnei.utils.ConsoleLogger;
 import org.johnnei.utils.JMath;
+import org.johnnei.utils.config.Config;
 
 import torrent.download.Torrent;
 import torrent.download.files.disk.DiskJob;
 import torrent.download.files.disk.DiskJobSendBlock;
 import torrent.network.BitTorrentSocket;
+import torrent.network.RateEstimator;
+import torrent.network.TokenBucket;
 import torrent.protocol.messages.MessageKeepAlive;
 
 public class Peer implements Comparable<Peer> {
@@ -42,7 +45,7 @@ public class Peer implements Comparable<Peer> {
 	private String clientName;
 	
 	/**
-	 * The count of messages which are still being processed by the IOManager
+	 * The count of messages which are still being processed by the disk executor
 	 */
 	private int pendingMessages;
 	
@@ -80,6 +83,26 @@ public class Peer implements Comparable<Peer> {
 	 * The bittorrent client which handles this peer's socket information and input/outputstreams
 	 */
 	private BitTorrentSocket socket;
+	
+	/**
+	 * The limit on the download rate of this peer
+	 */
+	private TokenBucket downloadBandwidth;
+	
+	/**
+	 * The limit on the upload rate of this peer
+	 */
+	private TokenBucket uploadBandwidth;
+	
+	/**
+	 * The measured download rate of this peer
+	 */
+	private RateEstimator downloadRate;
+	
+	/**
+	 * The measured upload rate of this peer
+	 */
+	private RateEstimator uploadRate;
 
 	public Peer(BitTorrentSocket client, Torrent torrent) {
 		this.torrent = torrent;
@@ -98,6 +121,14 @@ public class Peer implements Comparable<Peer> {
 			haveState = new Bitfield(0);
 		}
 		requestLimit = 1;
+		downloadBandwidth = new TokenBucket(torrent.getBandwidth(PeerDirection.Download));
+		uploadBandwidth = new TokenBucket(torrent.getBandwidth(PeerDirection.Upload));
+		downloadBandwidth.setRate(Config.getConfig().getInt("download-max_peer_rate") * 1024);
+		uploadBandwidth.setRate(Config.getConfig().getInt("upload-max_peer_rate") * 1024);
+		socket.setBandwidth(downloadBandwidth, uploadBandwidth);
+		downloadRate = new RateEstimator(torrent.getRate(PeerDirection.Download));
+		uploadRate = new RateEstimator(torrent.getRate(PeerDirection.Upload));
+		socket.setRateEstimators(downloadRate, uploadRate);
 	}
 
 	public void connect() {
@@ -427,6 +458,24 @@ public class Peer implements Comparable<Peer> {
 		return haveState.countHavePieces();
 	}
 
+	/**
+	 * Gets the limit which applies to this peer
+	 * @param direction The direction of the transfers
+	 * @return The bandwidth limit, which is unlimited unless a rate has been set
+	 */
+	public TokenBucket getBandwidth(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadBandwidth : uploadBandwidth;
+	}
+
+	/**
+	 * Gets the measured transfer rate of this peer
+	 * @param direction The direction of the transfers
+	 * @return The rate estimator
+	 */
+	public RateEstimator getRate(PeerDirection direction) {
+		return (direction == PeerDirection.Download) ? downloadRate : uploadRate;
+	}
+
 	/**
 	 * Gets the socket handler which handles the socket of this peer
 	 * @return
@@ -439,7 +488,7 @@ public class Peer implements Comparable<Peer> {
 	 * Requests to queue the next piece in the socket for sending
 	 */
 	public void queueNextPieceForSending() {
-		if (myClient.getQueueSize() == 0 || pendingMessages > 0) {
+		if (peerClient.getQueueSize() == 0 || pendingMessages > 0) {
 			return;
 		}
 		
@@ -1,7 +1,14 @@
 package torrent.download.tracker;
 
 import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,12 +20,34 @@ import torrent.download.peer.Peer;
 import torrent.download.peer.PeerConnectInfo;
 import torrent.encoding.SHA1;
 import torrent.network.BitTorrentSocket;
+import torrent.network.PeerIoMode;
+import torrent.network.protocol.TcpChannelSocket;
 import torrent.protocol.BitTorrentHandshake;
 import torrent.protocol.BitTorrentUtil;
 import torrent.util.StringUtil;
 
+/**
+ * Connects to peers and exchanges the handshakes with them.<br/>
+ * All connects and handshakes of this connector are in flight at the same time: In the selector mode they are driven by
+ * a single {@link Selector}, in the threaded mode every connection gets its own thread.
+ */
 public class PeerConnector implements Runnable {
-
+	
+	/**
+	 * The maximum time in milliseconds to establish the TCP connection
+	 */
+	private static final int CONNECT_TIMEOUT = 10_000;
+	
+	/**
+	 * The maximum time in milliseconds to wait for the handshake of the peer
+	 */
+	private static final int HANDSHAKE_TIMEOUT = 10_000;
+	
+	/**
+	 * The maximum time in milliseconds between two timeout checks
+	 */
+	private static final int TIMEOUT_CHECK_INTERVAL = 250;
+	
 	private final Object LOCK_PEER_LIST = new Object();
 	
 	/**
@@ -31,22 +60,42 @@ public class PeerConnector implements Runnable {
 	 */
 	private LinkedList<PeerConnectInfo> peers;
 	
+	/**
+	 * The peers which have been added but of which the connect has not yet been started
+	 */
+	private Queue<PeerConnectInfo> pendingConnects;
+	
+	/**
+	 * The connects and handshakes which are in flight
+	 */
+	private LinkedList<ConnectAttempt> attempts;
+	
+	private Selector selector;
+	
 	private TrackerManager manager;
 	
 	private final int maxPeers;
 	
+	/**
+	 * The way in which the peer input/output is handled
+	 */
+	private final PeerIoMode ioMode;
+	
 	private Logger log;
 	
 	public PeerConnector(TrackerManager manager, int maxConnecting) {
 		this.manager = manager;
 		this.maxPeers = maxConnecting;
 		peers = new LinkedList<>();
+		pendingConnects = new ConcurrentLinkedQueue<>();
+		attempts = new LinkedList<>();
+		ioMode = PeerIoMode.getConfigured();
 		log = ConsoleLogger.createLogger("PeerConnector", Level.INFO);
 	}
-
+	
 	/**
 	 * Adds a pending connection peer to the connection cycle
-	 * 
+	 *
 	 * @param peerInfo The peer to connect
 	 */
 	public void addPeer(PeerConnectInfo peerInfo) {
@@ -57,53 +106,232 @@ public class PeerConnector implements Runnable {
 		synchronized (LOCK_PEER_LIST) {
 			peers.add(peerInfo);
 		}
+		
+		if (ioMode == PeerIoMode.Threaded) {
+			// Every connection gets its own thread which blocks until the handshake has been received
+			ThreadUtils.startVirtualThread(() -> {
+				connectPeer(peerInfo);
+				onConnectFinished(peerInfo);
+			}, String.format("Peer connector %s", peerInfo.getAddress()));
+		} else {
+			pendingConnects.add(peerInfo);
+			Selector selector = this.selector;
+			if (selector != null) {
+				selector.wakeup();
+			}
+		}
 	}
-
+	
 	public void run() {
+		if (ioMode == PeerIoMode.Threaded) {
+			// The peers are connected on their own threads as soon as they get added
+			return;
+		}
+		
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			log.severe(String.format("Failed to open the connect selector: %s", e.getMessage()));
+			return;
+		}
+		
 		while (true) {
-			if (peers.isEmpty()) {
-				ThreadUtils.wait(PEER_JOB_NOTIFY);
-			}
+			startConnects();
 			
-			PeerConnectInfo peerInfo = null;
-			BitTorrentSocket peerSocket = null;
-			
-			synchronized (LOCK_PEER_LIST) {
-				peerInfo = peers.remove();
+			try {
+				selector.select(attempts.isEmpty() ? 0 : TIMEOUT_CHECK_INTERVAL);
+			} catch (IOException e) {
+				log.warning(String.format("Failed to select connecting peers: %s", e.getMessage()));
+				continue;
 			}
 			
-			if (peerInfo == null) {
-				continue;
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				processKey(key);
 			}
 			
+			checkTimeouts();
+		}
+	}
+	
+	/**
+	 * Starts the non-blocking connect for all peers which have been added since the last selection
+	 */
+	private void startConnects() {
+		PeerConnectInfo peerInfo;
+		while ((peerInfo = pendingConnects.poll()) != null) {
+			ConnectAttempt attempt = new ConnectAttempt(peerInfo);
 			try {
-				peerSocket = new BitTorrentSocket();
-				peerSocket.connect(peerInfo.getAddress());
-				peerSocket.sendHandshake(manager.getPeerId(), peerInfo.getTorrent().getHashArray());
+				attempt.channel = SocketChannel.open();
+				attempt.channel.configureBlocking(false);
+				attempt.deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+				attempts.add(attempt);
 				
-				long timeWaited = 0;
-				while (!peerSocket.canReadMessage() && timeWaited < 10_000) {
-					final int INTERVAL = 100;
-					ThreadUtils.sleep(INTERVAL);
-					timeWaited += INTERVAL;
+				if (attempt.channel.connect(peerInfo.getAddress())) {
+					attempt.key = attempt.channel.register(selector, 0, attempt);
+					onConnected(attempt);
+				} else {
+					attempt.key = attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
 				}
-				
-				if (!peerSocket.canReadMessage()) {
-					throw new IOException(String.format("Handshake timeout (%s)", peerSocket.getHandshakeProgress()));
-				}
-				
-				BitTorrentHandshake handshake = checkHandshake(peerSocket, peerInfo.getTorrent().getHashArray());
-				
-				Peer peer = new Peer(peerSocket, peerInfo.getTorrent());
-				peer.getExtensions().register(handshake.getPeerExtensionBytes());
-				BitTorrentUtil.onPostHandshake(peer);
-				log.fine(String.format("Connected with %s:%d", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort()));
 			} catch (IOException e) {
-				log.fine(String.format("Failed to connect to peer (%s:%d): %s", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort(), e.getMessage()));
-				if (peerSocket != null) {
-					peerSocket.close();
+				onFailure(attempt, e);
+			}
+		}
+	}
+	
+	private void processKey(SelectionKey key) {
+		ConnectAttempt attempt = (ConnectAttempt) key.attachment();
+		
+		try {
+			if (key.isConnectable()) {
+				attempt.channel.finishConnect();
+				onConnected(attempt);
+				return;
+			}
+			
+			if (key.isWritable()) {
+				attempt.socket.flush();
+				if (!attempt.socket.hasPendingOutput()) {
+					key.interestOps(SelectionKey.OP_READ);
 				}
 			}
+			
+			if (key.isValid() && key.isReadable()) {
+				onReadable(attempt);
+			}
+		} catch (CancelledKeyException e) {
+			onFailure(attempt, new IOException("Connection got closed"));
+		} catch (IOException e) {
+			onFailure(attempt, e);
+		}
+	}
+	
+	/**
+	 * Sends our handshake once the TCP connection has been established
+	 * @param attempt The connected attempt
+	 * @throws IOException
+	 */
+	private void onConnected(ConnectAttempt attempt) throws IOException {
+		attempt.socket = new BitTorrentSocket(new TcpChannelSocket(attempt.channel));
+		attempt.socket.sendHandshake(manager.getPeerId(), attempt.peerInfo.getTorrent().getHashArray());
+		attempt.deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+		
+		int interestOps = SelectionKey.OP_READ;
+		if (attempt.socket.hasPendingOutput()) {
+			interestOps |= SelectionKey.OP_WRITE;
+		}
+		attempt.key.interestOps(interestOps);
+	}
+	
+	/**
+	 * Completes the connection once the handshake of the peer has arrived
+	 * @param attempt The attempt which has received data
+	 * @throws IOException
+	 */
+	private void onReadable(ConnectAttempt attempt) throws IOException {
+		BitTorrentSocket peerSocket = attempt.socket;
+		if (!peerSocket.canReadMessage()) {
+			if (peerSocket.closed()) {
+				throw new IOException(String.format("Connection closed during handshake (%s)", peerSocket.getHandshakeProgress()));
+			}
+			return;
+		}
+		
+		// The peer selector will take over the channel
+		attempt.key.cancel();
+		attempts.remove(attempt);
+		
+		PeerConnectInfo peerInfo = attempt.peerInfo;
+		BitTorrentHandshake handshake = checkHandshake(peerSocket, peerInfo.getTorrent().getHashArray());
+		
+		Peer peer = new Peer(peerSocket, peerInfo.getTorrent());
+		peer.getExtensions().register(handshake.getPeerExtensionBytes());
+		BitTorrentUtil.onPostHandshake(peer);
+		log.fine(String.format("Connected with %s:%d", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort()));
+		onConnectFinished(peerInfo);
+	}
+	
+	/**
+	 * Drops all attempts which didn't complete their current stage in time
+	 */
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		Iterator<ConnectAttempt> iterator = attempts.iterator();
+		while (iterator.hasNext()) {
+			ConnectAttempt attempt = iterator.next();
+			if (attempt.deadline > now) {
+				continue;
+			}
+			
+			iterator.remove();
+			String reason;
+			try {
+				reason = (attempt.socket == null) ? "Connect timeout" : String.format("Handshake timeout (%s)", attempt.socket.getHandshakeProgress());
+			} catch (IOException e) {
+				reason = "Handshake timeout";
+			}
+			onFailure(attempt, new IOException(reason));
+		}
+	}
+	
+	private void onFailure(ConnectAttempt attempt, IOException e) {
+		PeerConnectInfo peerInfo = attempt.peerInfo;
+		log.fine(String.format("Failed to connect to peer (%s:%d): %s", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort(), e.getMessage()));
+		
+		attempts.remove(attempt);
+		if (attempt.key != null) {
+			attempt.key.cancel();
+		}
+		if (attempt.socket != null) {
+			attempt.socket.close();
+		} else if (attempt.channel != null) {
+			try {
+				attempt.channel.close();
+			} catch (IOException closeException) {
+				// Nothing to clean up anymore
+			}
+		}
+		onConnectFinished(peerInfo);
+	}
+	
+	/**
+	 * Frees up the capacity which was taken by the peer
+	 * @param peerInfo The peer which has either connected or failed to connect
+	 */
+	private void onConnectFinished(PeerConnectInfo peerInfo) {
+		synchronized (LOCK_PEER_LIST) {
+			peers.remove(peerInfo);
+		}
+	}
+	
+	/**
+	 * Connects to the peer and exchanges the handshakes with blocking reads and writes
+	 * @param peerInfo The peer to connect to
+	 */
+	private void connectPeer(PeerConnectInfo peerInfo) {
+		BitTorrentSocket peerSocket = null;
+		
+		try {
+			peerSocket = new BitTorrentSocket();
+			peerSocket.connect(peerInfo.getAddress());
+			peerSocket.sendHandshake(manager.getPeerId(), peerInfo.getTorrent().getHashArray());
+			
+			// Reading the handshake will block until it has arrived
+			peerSocket.setReadTimeout(HANDSHAKE_TIMEOUT);
+			BitTorrentHandshake handshake = checkHandshake(peerSocket, peerInfo.getTorrent().getHashArray());
+			peerSocket.setReadTimeout(0);
+			
+			Peer peer = new Peer(peerSocket, peerInfo.getTorrent());
+			peer.getExtensions().register(handshake.getPeerExtensionBytes());
+			BitTorrentUtil.onPostHandshake(peer);
+			log.fine(String.format("Connected with %s:%d", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort()));
+		} catch (IOException e) {
+			log.fine(String.format("Failed to connect to peer (%s:%d): %s", peerInfo.getAddress().getAddress(), peerInfo.getAddress().getPort(), e.getMessage()));
+			if (peerSocket != null) {
+				peerSocket.close();
+			}
 		}
 	}
 	
@@ -116,19 +344,19 @@ public class PeerConnector implements Runnable {
 		
 		return handshake;
 	}
-
+	
 	public int getFreeCapacity() {
 		return maxPeers - peers.size();
 	}
-
+	
 	public int getConnectingCount() {
 		return peers.size();
 	}
-
+	
 	public int getMaxCapacity() {
 		return maxPeers;
 	}
-
+	
 	public int getConnectingCountFor(Torrent torrent) {
 		LinkedList<PeerConnectInfo> peerList = null;
 		
@@ -140,5 +368,32 @@ public class PeerConnector implements Runnable {
 				filter(p -> p.getTorrent().equals(torrent)).
 				count();
 	}
+	
+	/**
+	 * The state of a connect which is being driven by the selector
+	 */
+	private static class ConnectAttempt {
+		
+		private final PeerConnectInfo peerInfo;
+		
+		private SocketChannel channel;
+		
+		private SelectionKey key;
+		
+		/**
+		 * The socket which is created once the TCP connection has been established
+		 */
+		private BitTorrentSocket socket;
+		
+		/**
+		 * The timestamp at which the current stage times out
+		 */
+		private long deadline;
+		
+		public ConnectAttempt(PeerConnectInfo peerInfo) {
+			this.peerInfo = peerInfo;
+		}
+		
+	}
 
 }
@@ -99,12 +99,6 @@ public class TorrentFrame extends JFrame implements ActionListener {
 		return detailsPane;
 	}
 	
-	public void updateData() {
-		for (int i = 0; i < torrents.size(); i++) {
-			torrents.get(i).pollRates();
-		}
-	}
-
 	public void addTorrent(Torrent torrent) {
 		torrents.add(torrent);
 	}
@@ -112,7 +106,6 @@ public class TorrentFrame extends JFrame implements ActionListener {
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		if (e.getSource().equals(updateTimer)) {
-			updateData();
 			repaint();
 		}
 	}
@@ -2,17 +2,22 @@ package torrent.network;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import java.util.Queue;
 
 import torrent.JavaTorrent;
+import torrent.download.files.FileRegion;
 import torrent.download.tracker.TrackerManager;
 import torrent.network.protocol.ISocket;
+import torrent.network.protocol.TcpChannelSocket;
 import torrent.network.protocol.TcpSocket;
 import torrent.protocol.BitTorrent;
 import torrent.protocol.BitTorrentHandshake;
 import torrent.protocol.IMessage;
 import torrent.protocol.MessageUtils;
+import torrent.protocol.messages.MessageFileBlock;
 
 public class BitTorrentSocket {
 	
@@ -28,14 +33,29 @@ public class BitTorrentSocket {
 	private ByteOutputStream outStream;
 	
 	/**
-	 * The amount of bytes read in the last second
+	 * The maximum amount of block bytes which will be combined into a single write
 	 */
-	private int downloadRate;
+	private static final int BLOCK_WRITE_LIMIT = 65536;
 	
 	/**
-	 * The amount of bytes written in the last second
+	 * The reusable buffer in which the pending messages are serialized before being written to the socket
 	 */
-	private int uploadRate;
+	private OutStream writeBuffer;
+	
+	/**
+	 * The buffer in which the headers of file blocks are written
+	 */
+	private ByteBuffer blockHeader;
+	
+	/**
+	 * The estimator of the rate at which bytes are read or <code>null</code> if not being measured
+	 */
+	private RateEstimator downloadRate;
+	
+	/**
+	 * The estimator of the rate at which bytes are written or <code>null</code> if not being measured
+	 */
+	private RateEstimator uploadRate;
 	
 	/**
 	 * Remembers if this socket has read the handshake information or not
@@ -53,17 +73,46 @@ public class BitTorrentSocket {
 	private Queue<IMessage> blockQueue;
 	
 	
-	private OutStream buffer;
-	private int bufferSize;
+	/**
+	 * The size of the reusable message buffer. Large enough to hold a block message of 16KiB
+	 */
+	private static final int MESSAGE_BUFFER_SIZE = 32768;
+	
+	/**
+	 * The reusable buffer in which incoming messages are collected
+	 */
+	private ByteBuffer messageBuffer;
+	
+	/**
+	 * The message which is currently being collected<br/>
+	 * This is the {@link #messageBuffer} unless the message doesn't fit in it
+	 */
+	private ByteBuffer buffer;
 	
 	/**
 	 * The last time a buffer was created
 	 */
 	private long lastBufferCreate;
 	
+	/**
+	 * The listener which gets notified when a message has been queued
+	 */
+	private volatile Runnable messageQueuedListener;
+	
+	/**
+	 * The limit on the rate at which messages are read or <code>null</code> if unlimited
+	 */
+	private TokenBucket downloadBandwidth;
+	
+	/**
+	 * The limit on the rate at which blocks are written or <code>null</code> if unlimited
+	 */
+	private TokenBucket uploadBandwidth;
+	
 	public BitTorrentSocket() {
 		messageQueue = new LinkedList<>();
 		blockQueue = new LinkedList<>();
+		writeBuffer = new OutStream(1024);
 	}
 	
 	public BitTorrentSocket(ISocket socket) throws IOException {
@@ -78,7 +127,11 @@ public class BitTorrentSocket {
 		}
 		
 		BitTorrentSocketException exception = new BitTorrentSocketException("Failed to connect to end point.");
-		socket = new TcpSocket();
+		if (PeerIoMode.getConfigured() == PeerIoMode.Threaded) {
+			socket = new TcpSocket();
+		} else {
+			socket = new TcpChannelSocket();
+		}
 		while (socket != null && (socket.isClosed() || socket.isConnecting())) {
 			try {
 				socket.connect(address);
@@ -108,11 +161,81 @@ public class BitTorrentSocket {
 				messageQueue.add(message);
 			}
 		}
+		
+		Runnable listener = messageQueuedListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+	
+	/**
+	 * Sets the listener which will be invoked every time a message has been queued
+	 * @param listener The listener or <code>null</code> to remove the current listener
+	 */
+	public void setMessageQueuedListener(Runnable listener) {
+		messageQueuedListener = listener;
+	}
+	
+	/**
+	 * Sets the limits on the transfer rates of this socket
+	 * @param download The limit on the reads
+	 * @param upload The limit on the writes
+	 */
+	public void setBandwidth(TokenBucket download, TokenBucket upload) {
+		downloadBandwidth = download;
+		uploadBandwidth = upload;
+	}
+	
+	/**
+	 * Calculates how long the reading of messages has to be postponed to stay within the bandwidth limit
+	 * @return The delay in milliseconds or 0 if messages can be read right now
+	 */
+	public long getReadDelay() {
+		if (downloadBandwidth == null) {
+			return 0;
+		}
+		
+		return downloadBandwidth.getDelay();
+	}
+	
+	/**
+	 * Calculates how long the writing of blocks has to be postponed to stay within the bandwidth limit.<br/>
+	 * Other messages are never postponed.
+	 * @return The delay in milliseconds or 0 if {@link #sendMessages()} can send right now
+	 */
+	public long getWriteDelay() {
+		if (uploadBandwidth == null) {
+			return 0;
+		}
+		
+		synchronized (QUEUE_LOCK) {
+			if (!messageQueue.isEmpty()) {
+				return 0;
+			}
+		}
+		
+		return uploadBandwidth.getDelay();
+	}
+	
+	/**
+	 * Sets the estimators on which the transferred bytes will be recorded
+	 * @param download The estimator of the reads
+	 * @param upload The estimator of the writes
+	 */
+	public void setRateEstimators(RateEstimator download, RateEstimator upload) {
+		downloadRate = download;
+		uploadRate = upload;
+		if (inStream != null) {
+			inStream.setRateEstimator(download);
+			outStream.setRateEstimator(upload);
+		}
 	}
 	
 	private void createIOStreams() throws IOException {
 		inStream = new ByteInputStream(socket.getInputStream());
+		inStream.setRateEstimator(downloadRate);
 		outStream = new ByteOutputStream(socket.getOutputStream());
+		outStream.setRateEstimator(uploadRate);
 	}
 	
 	public IMessage readMessage() throws IOException {
@@ -120,27 +243,111 @@ public class BitTorrentSocket {
 	}
 	
 	/**
-	 * Sends at most 1 pending message. {@link MessagePiece} will be send last
+	 * Sends all pending messages followed by as many blocks as fit in {@link #BLOCK_WRITE_LIMIT} in a single write.
+	 * Blocks will be send last and only when the upload bandwidth limit allows it
 	 * @throws IOException
 	 */
-	public void sendMessage() throws IOException {
-		IMessage message = null;
+	public void sendMessages() throws IOException {
+		writeBuffer.reset();
+		int writtenBytes = 0;
 		
-		if (!messageQueue.isEmpty()) {
-			synchronized (QUEUE_LOCK) {
-				message = messageQueue.poll();
+		synchronized (QUEUE_LOCK) {
+			IMessage message;
+			while ((message = messageQueue.poll()) != null) {
+				MessageUtils.getUtils().writeMessage(writeBuffer, message);
+				writtenBytes += message.getLength() + 4;
 			}
-		} else if (!blockQueue.isEmpty()) {
+		}
+		
+		// Blocks are only sent when the limit allows it right now, the first one is sent regardless of its size so a
+		// block larger than BLOCK_WRITE_LIMIT can't stall the queue
+		int blockBytes = 0;
+		boolean canSendBlocks = uploadBandwidth == null || uploadBandwidth.getDelay() == 0;
+		while (canSendBlocks && blockBytes < BLOCK_WRITE_LIMIT) {
+			IMessage message;
 			synchronized (BLOCK_QUEUE_LOCK) {
 				message = blockQueue.poll();
 			}
+			
+			if (message == null) {
+				break;
+			}
+			
+			if (message instanceof MessageFileBlock && socket.canTransferFiles()) {
+				writeFileBlock((MessageFileBlock) message);
+			} else {
+				MessageUtils.getUtils().writeMessage(writeBuffer, message);
+			}
+			blockBytes += message.getLength();
+			writtenBytes += message.getLength() + 4;
 		}
 		
-		if (message == null) {
-			return;
+		writeBuffer.writeTo(outStream);
+		outStream.flush();
+		
+		if (uploadBandwidth != null) {
+			uploadBandwidth.consume(writtenBytes);
+		}
+	}
+	
+	/**
+	 * Writes the header of the block and queues the data to be transferred directly from the files
+	 * @param message The block to send
+	 * @throws IOException
+	 */
+	private void writeFileBlock(MessageFileBlock message) throws IOException {
+		if (blockHeader == null) {
+			blockHeader = ByteBuffer.allocate(MessageFileBlock.HEADER_SIZE);
+		}
+		
+		blockHeader.clear();
+		message.writeHeader(blockHeader);
+		writeBuffer.write(blockHeader.array(), 0, blockHeader.position());
+		
+		// The file regions get queued behind everything which has been written so far
+		writeBuffer.writeTo(outStream);
+		writeBuffer.reset();
+		
+		for (FileRegion region : message.getRegions()) {
+			socket.transferFrom(region.getFileInfo().getFileChannel(), region.getOffset(), region.getLength());
+			outStream.countBytes(region.getLength());
+		}
+	}
+	
+	/**
+	 * Checks if blocks can be sent directly from the files
+	 * @return true if the socket supports file transfers
+	 */
+	public boolean canTransferFiles() {
+		return socket != null && socket.canTransferFiles();
+	}
+	
+	/**
+	 * Tries to hand all data which is buffered in the socket to the network
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		socket.flush();
+	}
+	
+	/**
+	 * Checks if the socket still holds data which has not been handed to the network
+	 * @return
+	 */
+	public boolean hasPendingOutput() {
+		return socket.hasPendingOutput();
+	}
+	
+	/**
+	 * Gets the channel which can be registered on a selector
+	 * @return The channel or <code>null</code> if this socket has to be polled
+	 */
+	public SocketChannel getChannel() {
+		if (socket == null) {
+			return null;
 		}
 		
-		MessageUtils.getUtils().writeMessage(outStream, message);
+		return socket.getChannel();
 	}
 	
 	/**
@@ -186,17 +393,6 @@ public class BitTorrentSocket {
 		return new BitTorrentHandshake(torrentHash, extensionBytes, peerId);
 	}
 	
-	public void pollRates() {
-		if (inStream != null) {
-			downloadRate = inStream.getSpeed();
-			inStream.reset(downloadRate);
-		}
-		if (outStream != null) {
-			uploadRate = outStream.getSpeed();
-			outStream.reset(uploadRate);
-		}
-	}
-	
 	/**
 	 * Closes the connection with the socket
 	 */
@@ -222,24 +418,94 @@ public class BitTorrentSocket {
 			}
 			
 			int length = inStream.readInt();
-			buffer = new OutStream(length + 4);
-			bufferSize = length + 4;
-			buffer.writeInt(length);
+			if (length < 0) {
+				throw new IOException(String.format("Invalid message length: %d", length));
+			}
+			
+			buffer = getMessageBuffer(length + 4);
+			buffer.putInt(length);
+			lastBufferCreate = System.currentTimeMillis();
+			consumeDownload(4);
 		}
 		
-		int remainingBytes = bufferSize - buffer.size();
-		if (remainingBytes == 0) {
+		if (!buffer.hasRemaining()) {
 			return true;
 		}
 		
-		int availableBytes = Math.min(remainingBytes, inStream.available());
-		buffer.write(inStream.readByteArray(availableBytes));
+		int availableBytes = Math.min(buffer.remaining(), inStream.available());
+		if (availableBytes > 0) {
+			inStream.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), availableBytes);
+			buffer.position(buffer.position() + availableBytes);
+			consumeDownload(availableBytes);
+		}
 		
-		return bufferSize - buffer.size() == 0;
+		return !buffer.hasRemaining();
 	}
 	
+	/**
+	 * Blocks until a complete message has been received. The message can be retrieved with {@link #getBufferedMessage()}<br/>
+	 * This may only be used on sockets of which the reads block.
+	 * @throws IOException
+	 */
+	public void awaitMessage() throws IOException {
+		int length = inStream.readInt();
+		if (length < 0) {
+			throw new IOException(String.format("Invalid message length: %d", length));
+		}
+		
+		lastBufferCreate = System.currentTimeMillis();
+		buffer = getMessageBuffer(length + 4);
+		buffer.putInt(length);
+		inStream.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+		buffer.position(buffer.limit());
+		consumeDownload(length + 4);
+	}
+	
+	private void consumeDownload(int bytes) {
+		if (downloadBandwidth != null) {
+			downloadBandwidth.consume(bytes);
+		}
+	}
+	
+	/**
+	 * Sets the maximum time a blocking read may take
+	 * @param timeout The timeout in milliseconds or 0 to wait indefinitely
+	 * @throws IOException
+	 */
+	public void setReadTimeout(int timeout) throws IOException {
+		socket.setReadTimeout(timeout);
+	}
+	
+	/**
+	 * Gets a buffer to collect a message in.<br/>
+	 * Messages which fit in the {@link #messageBuffer} reuse it, larger messages get their own buffer.
+	 * 
+	 * @param size The size of the message including the length prefix
+	 * @return An empty buffer with a limit of the given size
+	 */
+	private ByteBuffer getMessageBuffer(int size) {
+		if (size > MESSAGE_BUFFER_SIZE) {
+			return ByteBuffer.allocate(size);
+		}
+		
+		if (messageBuffer == null) {
+			messageBuffer = ByteBuffer.allocate(MESSAGE_BUFFER_SIZE);
+		}
+		
+		messageBuffer.clear();
+		messageBuffer.limit(size);
+		return messageBuffer;
+	}
+	
+	/**
+	 * Gets the message which has been collected by {@link #canReadMessage()}.<br/>
+	 * The returned stream is a view on the reusable buffer and is only valid until the next call to {@link #canReadMessage()}
+	 * 
+	 * @return The message including the length prefix
+	 */
 	public InStream getBufferedMessage() {
-		InStream inStream = new InStream(buffer.toByteArray());
+		buffer.flip();
+		InStream inStream = new InStream(buffer);
 		buffer = null;
 		return inStream;
 	}
@@ -254,12 +520,28 @@ public class BitTorrentSocket {
 	}
 	
 
+	/**
+	 * Gets the short-term rate at which bytes are read
+	 * @return The rate in bytes per second
+	 */
 	public int getDownloadRate() {
-		return downloadRate;
+		if (downloadRate == null) {
+			return 0;
+		}
+		
+		return downloadRate.getRate();
 	}
 
+	/**
+	 * Gets the short-term rate at which bytes are written
+	 * @return The rate in bytes per second
+	 */
 	public int getUploadRate() {
-		return uploadRate;
+		if (uploadRate == null) {
+			return 0;
+		}
+		
+		return uploadRate.getRate();
 	}
 	
 	/**
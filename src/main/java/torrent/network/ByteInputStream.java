@@ -1,43 +1,30 @@
 package torrent.network;
 
 import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class ByteInputStream extends DataInputStream {
 	
 	/**
-	 * The speed in bytes that this inputStream is being read
+	 * The stream which counts the bytes which are read through this stream
 	 */
-	private int speed;
-	
-	/**
-	 * The timestamp of the last time we've succesfully read a byte.
-	 */
-	private long lastActivity;
+	private final CountingInputStream counter;
 
 	public ByteInputStream(InputStream in) {
-		super(in);
-		speed = 0;
+		this(new CountingInputStream(in));
 	}
-
-	@Override
-	public int read() throws IOException {
-		int b = super.read();
-		if (b != -1) {
-			++speed;
-			lastActivity = System.currentTimeMillis();
-		}
-		return b;
+	
+	private ByteInputStream(CountingInputStream counter) {
+		super(counter);
+		this.counter = counter;
 	}
 
 	public String readString(int length) throws IOException {
-		String s = "";
-		while (length > 0) {
-			s += (char) (read() & 0xFF);
-			length--;
-		}
-		return s;
+		return new String(readByteArray(length), StandardCharsets.ISO_8859_1);
 	}
 
 	public String readString() throws IOException {
@@ -46,18 +33,40 @@ public class ByteInputStream extends DataInputStream {
 
 	public byte[] readByteArray(int length) throws IOException {
 		byte[] array = new byte[length];
-		for (int i = 0; i < array.length; i++) {
-			array[i] = (byte) (read() & 0xFF);
-		}
+		readFully(array);
 		return array;
 	}
-
-	public int getSpeed() {
-		return speed;
+	
+	/**
+	 * Reads as many bytes as are available into the remaining space of the buffer
+	 * 
+	 * @param buffer The buffer to read into
+	 * @return The amount of bytes read or -1 if no bytes are available
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		if (!buffer.hasArray()) {
+			byte[] bytes = new byte[buffer.remaining()];
+			int read = read(bytes);
+			if (read > 0) {
+				buffer.put(bytes, 0, read);
+			}
+			return read;
+		}
+		
+		int read = read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		if (read > 0) {
+			buffer.position(buffer.position() + read);
+		}
+		return read;
 	}
 
-	public void reset(int downloadRate) {
-		speed -= downloadRate;
+	/**
+	 * Sets the estimator on which the read bytes will be recorded
+	 * @param rateEstimator The estimator or <code>null</code> to stop recording
+	 */
+	public void setRateEstimator(RateEstimator rateEstimator) {
+		counter.rateEstimator = rateEstimator;
 	}
 
 	/**
@@ -65,7 +74,65 @@ public class ByteInputStream extends DataInputStream {
 	 * @return
 	 */
 	public long getLastActivity() {
-		return lastActivity;
+		return counter.lastActivity;
+	}
+	
+	/**
+	 * Counts the bytes once per read call.<br/>
+	 * The {@link DataInputStream} methods (readInt, readFully, ...) all end up in this stream, so every read
+	 * byte is counted regardless of how it got read.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		
+		/**
+		 * The estimator on which the read bytes are recorded
+		 */
+		private volatile RateEstimator rateEstimator;
+		
+		/**
+		 * The timestamp of the last time we've succesfully read a byte.
+		 */
+		private long lastActivity;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if (skipped > 0) {
+				count((int) skipped);
+			}
+			return skipped;
+		}
+		
+		private void count(int length) {
+			RateEstimator estimator = rateEstimator;
+			if (estimator != null) {
+				estimator.record(length);
+			}
+			lastActivity = System.currentTimeMillis();
+		}
+		
 	}
 
 }
@@ -3,35 +3,66 @@ package torrent.network;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class ByteOutputStream extends FilterOutputStream {
 
-	private int speed;
+	/**
+	 * The estimator on which the written bytes are recorded
+	 */
+	private volatile RateEstimator rateEstimator;
 
 	public ByteOutputStream(OutputStream outStream) {
 		super(outStream);
-		speed = 0;
 	}
 
 	@Override
 	public void write(int i) throws IOException {
-		speed++;
-		super.write(i);
+		out.write(i);
+		countBytes(1);
 	}
 
 	@Override
 	public void write(byte[] bytes, int offset, int length) throws IOException {
-		for (int i = 0; i < length; i++) {
-			write(bytes[offset + i]);
+		out.write(bytes, offset, length);
+		countBytes(length);
+	}
+	
+	/**
+	 * Writes all remaining bytes of the buffer
+	 * 
+	 * @param buffer The buffer to write
+	 * @throws IOException
+	 */
+	public void write(ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			write(bytes, 0, bytes.length);
 		}
 	}
 
-	public int getSpeed() {
-		return speed;
+	/**
+	 * Counts bytes which have been handed to the underlying socket without passing through this stream
+	 * 
+	 * @param length The amount of bytes
+	 */
+	public void countBytes(int length) {
+		RateEstimator estimator = rateEstimator;
+		if (estimator != null) {
+			estimator.record(length);
+		}
 	}
 
-	public void reset(int uploadRate) {
-		speed -= uploadRate;
+	/**
+	 * Sets the estimator on which the written bytes will be recorded
+	 * @param rateEstimator The estimator or <code>null</code> to stop recording
+	 */
+	public void setRateEstimator(RateEstimator rateEstimator) {
+		this.rateEstimator = rateEstimator;
 	}
 	
 	public void writeByte(int i) throws IOException {
@@ -39,9 +70,11 @@ public class ByteOutputStream extends FilterOutputStream {
 	}
 
 	public void writeString(String s) throws IOException {
-		for (int i = 0; i < s.length(); i++) {
-			write(s.charAt(i) & 0xFF);
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
 		}
+		write(bytes, 0, bytes.length);
 	}
 
 }
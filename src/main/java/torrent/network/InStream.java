@@ -1,76 +1,70 @@
 package torrent.network;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class InStream {
 	
 	/**
-	 * The byte array reader
+	 * The bytes which can be read, bounded to the supplied range
 	 */
-	private ByteArrayInputStream buffer;
-	
-	/**
-	 * The wrapper around the {@link #buffer} which provides data-type access.
-	 */
-	private DataInputStream in;
-	
-	/**
-	 * The total amount of supplied bytes
-	 */
-	private int length;
+	private ByteBuffer buffer;
 	
 	public InStream(byte[] data) {
 		this(data, 0, data.length);
 	}
 	
 	public InStream(byte[] data, int offset, int length) {
-		buffer = new ByteArrayInputStream(data, offset, length);
-		in = new DataInputStream(buffer);
-		this.length = length;
+		this(ByteBuffer.wrap(data, offset, length));
+	}
+	
+	/**
+	 * Creates an InStream on the bytes between the position and the limit of the given buffer.<br/>
+	 * The bytes are not copied, so the buffer may not be modified as long as this stream is being used.
+	 * 
+	 * @param buffer The buffer to read from
+	 */
+	public InStream(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
 	}
 
 	public boolean readBoolean() {
 		try {
-			return in.readBoolean();
-		} catch (IOException e) { /* Ignore */ return false; }
+			return buffer.get() != 0;
+		} catch (BufferUnderflowException e) { /* Ignore */ return false; }
 	}
 
 	public byte readByte() {
 		try {
-			return in.readByte();
-		} catch (IOException e) { /* Ignore */ return -1; }
+			return buffer.get();
+		} catch (BufferUnderflowException e) { /* Ignore */ return -1; }
 	}
 
 	public char readChar() {
 		try {
-			return in.readChar();
-		} catch (IOException e) { /* Ignore */ return 0; }
+			return buffer.getChar();
+		} catch (BufferUnderflowException e) { /* Ignore */ return 0; }
 	}
 
 	public double readDouble() {
 		try {
-			return in.readDouble();
-		} catch (IOException e) { /* Ignore */ return Double.NaN; }
+			return buffer.getDouble();
+		} catch (BufferUnderflowException e) { /* Ignore */ return Double.NaN; }
 	}
 
 	public float readFloat() {
 		try {
-			return in.readFloat();
-		} catch (IOException e) { /* Ignore */ return Float.NaN; }
+			return buffer.getFloat();
+		} catch (BufferUnderflowException e) { /* Ignore */ return Float.NaN; }
 	}
 
 	public void readFully(byte[] b) {
-		try {
-			in.readFully(b);
-		} catch (IOException e) { /* Ignore */ }
+		readFully(b, 0, b.length);
 	}
 
 	public void readFully(byte[] b, int off, int len) {
-		try {
-			in.readFully(b, off, len);
-		} catch (IOException e) { /* Ignore */ }
+		buffer.get(b, off, Math.min(len, buffer.remaining()));
 	}
 	
 	public byte[] readFully(int len) {
@@ -81,71 +75,80 @@ public class InStream {
 
 	public int readInt() {
 		try {
-			return in.readInt();
-		} catch (IOException e) { /* Ignore */ return -1; }
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) { /* Ignore */ return -1; }
 	}
 
 	@Deprecated
 	public String readLine() {
-		try {
-			return in.readLine();
-		} catch (IOException e) { /* Ignore */ return null;}
+		if (!buffer.hasRemaining()) {
+			return null;
+		}
+		
+		StringBuilder line = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			char c = (char) (buffer.get() & 0xFF);
+			if (c == '\n') {
+				break;
+			} else if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+					buffer.get();
+				}
+				break;
+			}
+			line.append(c);
+		}
+		return line.toString();
 	}
 
 	public long readLong() {
 		try {
-			return in.readLong();
-		} catch (IOException e) { /* Ignore */ return -1; }
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) { /* Ignore */ return -1; }
 	}
 
 	public short readShort() {
 		try {
-			return in.readShort();
-		} catch (IOException e) { /* Ignore */ return -1; }
+			return buffer.getShort();
+		} catch (BufferUnderflowException e) { /* Ignore */ return -1; }
 	}
 
 	public String readUTF() {
-		try {
-			return in.readUTF();
-		} catch (IOException e) { /* Ignore */ return null; }
+		int length = readUnsignedShort();
+		if (length > buffer.remaining()) {
+			return null;
+		}
+		return new String(readFully(length), StandardCharsets.UTF_8);
 	}
 
 	public int readUnsignedByte() {
 		try {
-			return in.readUnsignedByte();
-		} catch (IOException e) { /* Ignore */ return 0; }
+			return buffer.get() & 0xFF;
+		} catch (BufferUnderflowException e) { /* Ignore */ return 0; }
 	}
 
 	public int readUnsignedShort() {
 		try {
-			return in.readUnsignedShort();
-		} catch (IOException e) { /* Ignore */ return 0; }
+			return buffer.getShort() & 0xFFFF;
+		} catch (BufferUnderflowException e) { /* Ignore */ return 0; }
 	}
 
 	public int skipBytes(int n) {
-		try {
-			return in.skipBytes(n);
-		} catch (IOException e) { /* Ignore */ return 0; }
+		int skipped = Math.min(Math.max(n, 0), buffer.remaining());
+		buffer.position(buffer.position() + skipped);
+		return skipped;
 	}
 	
 	public void moveBack(int n) {
-		int offset = length - buffer.available() - n;
-		buffer.reset();
-		skipBytes(offset);
+		buffer.position(buffer.position() - n);
 	}
 
 	public int available() {
-		try {
-			return in.available();
-		} catch (IOException e) { /* Ignore */ return -1; }
+		return buffer.remaining();
 	}
 	
 	public String readString(int length) {
-		StringBuilder builder = new StringBuilder(length);
-		for (int i = 0; i < length; i++) {
-			builder.append((char) readByte());
-		}
-		return builder.toString();
+		return new String(readFully(Math.min(length, buffer.remaining())), StandardCharsets.ISO_8859_1);
 	}
 
 }
@@ -3,6 +3,7 @@ package torrent.network;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 public class OutStream {
 	
@@ -123,5 +124,24 @@ public class OutStream {
 	public byte[] toByteArray() {
 		return buffer.toByteArray();
 	}
+	
+	/**
+	 * Writes the written bytes to the given stream without copying them into a new array
+	 * 
+	 * @param outputStream The stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		if (buffer.size() > 0) {
+			buffer.writeTo(outputStream);
+		}
+	}
+	
+	/**
+	 * Discards all written bytes so the buffer can be reused
+	 */
+	public void reset() {
+		buffer.reset();
+	}
 
 }
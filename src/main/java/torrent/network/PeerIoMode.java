@@ -0,0 +1,31 @@
+package torrent.network;
+
+import org.johnnei.utils.config.Config;
+
+/**
+ * The ways in which the peer connections can be handled. Configured by <code>peer-io_mode</code>
+ */
+public enum PeerIoMode {
+	
+	/**
+	 * Non-blocking sockets which are handled by a small amount of selector threads (<code>selector</code>)
+	 */
+	Selector,
+	/**
+	 * Blocking sockets which each have their own (virtual) threads (<code>thread</code>)
+	 */
+	Threaded;
+	
+	/**
+	 * Gets the mode which has been configured
+	 * @return The configured mode
+	 */
+	public static PeerIoMode getConfigured() {
+		if ("thread".equalsIgnoreCase(Config.getConfig().getString("peer-io_mode"))) {
+			return Threaded;
+		}
+		
+		return Selector;
+	}
+
+}
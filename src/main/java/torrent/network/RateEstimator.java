@@ -0,0 +1,156 @@
+package torrent.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the rate at which bytes are transferred.<br/>
+ * Estimators form the same hierarchy as the {@link TokenBucket}s (global, torrent, peer): bytes which are recorded on
+ * a peer are also recorded on its torrent and the global estimator.<br/>
+ * Recording only adds to a counter. The rates are derived from that counter when they are requested, based on the
+ * elapsed time rather than on how often they are requested, so the result doesn't depend on the caller.
+ */
+public class RateEstimator {
+	
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	/**
+	 * The minimum time in nanoseconds between two samples, requests within this time reuse the last sample
+	 */
+	private static final long SAMPLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	/**
+	 * The time constant in nanoseconds of the short-term rate
+	 */
+	private static final double SHORT_TERM = TimeUnit.SECONDS.toNanos(2);
+	
+	/**
+	 * The time constant in nanoseconds of the long-term average
+	 */
+	private static final double LONG_TERM = TimeUnit.SECONDS.toNanos(60);
+	
+	/**
+	 * The estimator which sums this estimator and its siblings
+	 */
+	private final RateEstimator parent;
+	
+	/**
+	 * The amount of bytes which have been recorded
+	 */
+	private final LongAdder totalBytes;
+	
+	/**
+	 * The last calculated state of the rates
+	 */
+	private final AtomicReference<Sample> lastSample;
+	
+	public RateEstimator(RateEstimator parent) {
+		this.parent = parent;
+		totalBytes = new LongAdder();
+		lastSample = new AtomicReference<>(new Sample(System.nanoTime(), 0, 0, 0, 0));
+	}
+	
+	/**
+	 * Records transferred bytes on this estimator and all of its parents
+	 * @param bytes The amount of bytes which have been transferred
+	 */
+	public void record(int bytes) {
+		totalBytes.add(bytes);
+		if (parent != null) {
+			parent.record(bytes);
+		}
+	}
+	
+	/**
+	 * Gets the current sample, creates a new one if the last sample is older than {@link #SAMPLE_INTERVAL}
+	 * @return The most recent sample
+	 */
+	private Sample sample() {
+		Sample sample = lastSample.get();
+		long now = System.nanoTime();
+		long elapsed = now - sample.time;
+		if (elapsed < SAMPLE_INTERVAL) {
+			return sample;
+		}
+		
+		long total = totalBytes.sum();
+		double rate = (double) (total - sample.total) * NANOS_PER_SECOND / elapsed;
+		
+		// The weight of the old value depends on the elapsed time so irregular sampling doesn't skew the result
+		double shortTerm = rate + Math.exp(-elapsed / SHORT_TERM) * (sample.shortTerm - rate);
+		double longTerm = rate + Math.exp(-elapsed / LONG_TERM) * (sample.longTerm - rate);
+		Sample newSample = new Sample(now, total, shortTerm, longTerm, Math.max(sample.peak, shortTerm));
+		
+		if (lastSample.compareAndSet(sample, newSample)) {
+			return newSample;
+		}
+		
+		// Another thread sampled at the same time, its result is just as recent
+		return lastSample.get();
+	}
+	
+	/**
+	 * Gets the short-term rate which reacts within a few seconds
+	 * @return The rate in bytes per second
+	 */
+	public int getRate() {
+		return (int) sample().shortTerm;
+	}
+	
+	/**
+	 * Gets the long-term average rate which smooths out the rate over about a minute
+	 * @return The rate in bytes per second
+	 */
+	public int getAverageRate() {
+		return (int) sample().longTerm;
+	}
+	
+	/**
+	 * Gets the highest short-term rate which has been observed
+	 * @return The rate in bytes per second
+	 */
+	public int getPeakRate() {
+		return (int) sample().peak;
+	}
+	
+	/**
+	 * Gets the amount of bytes which have been recorded
+	 * @return The amount of bytes
+	 */
+	public long getTotalBytes() {
+		return totalBytes.sum();
+	}
+	
+	/**
+	 * An immutable snapshot of the rates which can be replaced atomically
+	 */
+	private static class Sample {
+		
+		/**
+		 * The {@link System#nanoTime()} at which this sample was taken
+		 */
+		private final long time;
+		
+		/**
+		 * The total amount of bytes at the time of this sample
+		 */
+		private final long total;
+		
+		private final double shortTerm;
+		
+		private final double longTerm;
+		
+		private final double peak;
+		
+		public Sample(long time, long total, double shortTerm, double longTerm, double peak) {
+			this.time = time;
+			this.total = total;
+			this.shortTerm = shortTerm;
+			this.longTerm = longTerm;
+			this.peak = peak;
+		}
+		
+	}
+
+}
@@ -168,11 +168,25 @@ public class Stream {
 		this.buffer = buffer;
 	}
 
+	/**
+	 * Replaces the buffer with the first <b>length</b> bytes of the given buffer and starts reading at its beginning
+	 * 
+	 * @param buffer The buffer to read from
+	 * @param length The amount of valid bytes in the buffer
+	 */
+	public void fill(byte[] buffer, int length) {
+		this.buffer = buffer;
+		writeOffset = length;
+		readOffset = 0;
+	}
+
 	public byte[] readByteArray(int length) {
-		byte[] array = new byte[length];
-		for (int i = 0; i < length; i++) {
-			array[i] = (byte) readByte();
+		if (length > available()) {
+			throw new ArrayIndexOutOfBoundsException(String.format("Can't read %d bytes, only %d are available", length, available()));
 		}
+		byte[] array = new byte[length];
+		System.arraycopy(buffer, readOffset, array, 0, length);
+		readOffset += length;
 		return array;
 	}
 
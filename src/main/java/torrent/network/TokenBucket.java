@@ -0,0 +1,317 @@
+package torrent.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which bytes are transferred.<br/>
+ * Buckets form a hierarchy (global, torrent, peer): a transfer is only allowed when neither the bucket nor any of its
+ * parents is exhausted and consumes the tokens of all of them. The capacity which is not used by one child stays
+ * available to its siblings.<br/>
+ * While a limited parent is contended, which is the case for a second after it ran out of tokens, each child is held to
+ * its fair share: the rate which is available to the parent divided by the amount of children which transferred or
+ * waited during the last second. A child which used more than its share has to wait for its share to refill, so the
+ * tokens which the parent earns go to the children which are behind instead of to whichever child asks first. When
+ * the parent isn't contended the children may borrow the spare capacity freely.<br/>
+ * A transfer may overdraw the bucket so that a block never has to be split, the following transfers have to wait until
+ * the deficit has been refilled. A bucket without limit in its hierarchy doesn't keep track of its tokens at all.
+ */
+public class TokenBucket {
+	
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	/**
+	 * The period in nanoseconds in which a child has to transfer or wait to count as active
+	 */
+	private static final long ACTIVITY_WINDOW = NANOS_PER_SECOND;
+	
+	/**
+	 * The time in nanoseconds for which a bucket is contended after it has run out of tokens
+	 */
+	private static final long CONTENTION_TIMEOUT = NANOS_PER_SECOND;
+	
+	private final Object TOKEN_LOCK = new Object();
+	
+	/**
+	 * The bucket which limits this bucket and its siblings together
+	 */
+	private final TokenBucket parent;
+	
+	/**
+	 * The amount of bytes per second which may be transferred or 0 if unlimited
+	 */
+	private volatile int rate;
+	
+	/**
+	 * The amount of bytes which may be transferred right now. Negative when the bucket has been overdrawn
+	 */
+	private long tokens;
+	
+	/**
+	 * The time in nanoseconds at which the tokens were last refilled
+	 */
+	private long lastRefill;
+	
+	/**
+	 * The time in nanoseconds at which this bucket was last found without tokens
+	 */
+	private volatile long lastExhausted;
+	
+	/**
+	 * The amount of bytes of the fair share of the parent which may be transferred right now
+	 */
+	private long shareTokens;
+	
+	/**
+	 * The time in nanoseconds at which the share tokens were last refilled
+	 */
+	private long lastShareRefill;
+	
+	/**
+	 * The activity window in which this bucket was last counted as active child of its parent
+	 */
+	private volatile long activeWindow;
+	
+	/**
+	 * The activity window of which the active children are being counted
+	 */
+	private long countedWindow;
+	
+	/**
+	 * The amount of children which have been active in the counted window
+	 */
+	private int activeChildren;
+	
+	/**
+	 * The amount of children which were active in the window before the counted window
+	 */
+	private int previousActiveChildren;
+	
+	public TokenBucket(TokenBucket parent) {
+		this.parent = parent;
+		lastRefill = System.nanoTime();
+		lastShareRefill = lastRefill;
+		lastExhausted = lastRefill - CONTENTION_TIMEOUT;
+		activeWindow = -1;
+	}
+	
+	/**
+	 * Sets the limit of this bucket
+	 * @param rate The amount of bytes per second or 0 to remove the limit
+	 */
+	public void setRate(int rate) {
+		synchronized (TOKEN_LOCK) {
+			this.rate = Math.max(0, rate);
+			// Start with a full second worth of tokens
+			tokens = this.rate;
+			lastRefill = System.nanoTime();
+		}
+	}
+	
+	public int getRate() {
+		return rate;
+	}
+	
+	/**
+	 * Calculates how long a transfer has to wait until all buckets in the hierarchy have tokens available and this
+	 * bucket is within its fair share
+	 * @return The delay in milliseconds or 0 if the transfer is allowed right now
+	 */
+	public long getDelay() {
+		long delay = getOwnDelay();
+		if (parent == null) {
+			return delay;
+		}
+		
+		delay = Math.max(delay, parent.getDelay());
+		if (parent.isContended()) {
+			delay = Math.max(delay, getShareDelay());
+		}
+		
+		if (delay > 0 && parent.hasLimit()) {
+			// A waiting child still wants its share
+			parent.onChildActive(this);
+		}
+		return delay;
+	}
+	
+	/**
+	 * Removes the transferred bytes from this bucket and all of its parents
+	 * @param bytes The amount of bytes which have been transferred
+	 */
+	public void consume(int bytes) {
+		if (parent != null) {
+			parent.consume(bytes);
+			
+			if (parent.hasLimit()) {
+				parent.onChildActive(this);
+				long share = parent.getChildShare();
+				if (share > 0 && parent.isContended()) {
+					synchronized (TOKEN_LOCK) {
+						refillShare(share);
+						shareTokens -= bytes;
+					}
+				}
+			}
+		}
+		
+		if (rate == 0) {
+			return;
+		}
+		
+		synchronized (TOKEN_LOCK) {
+			refill();
+			tokens -= bytes;
+		}
+	}
+	
+	/**
+	 * Calculates the delay which is caused by the limit of this bucket alone
+	 */
+	private long getOwnDelay() {
+		if (rate == 0) {
+			return 0;
+		}
+		
+		synchronized (TOKEN_LOCK) {
+			refill();
+			if (tokens > 0) {
+				return 0;
+			}
+			
+			lastExhausted = System.nanoTime();
+			// At least 1ms to prevent spinning on the last partial millisecond
+			return Math.max(1, (-tokens + 1) * 1000 / Math.max(1, rate));
+		}
+	}
+	
+	/**
+	 * Calculates the delay until this bucket is back within its fair share of the parent
+	 */
+	private long getShareDelay() {
+		long share = parent.getChildShare();
+		if (share == 0) {
+			return 0;
+		}
+		
+		synchronized (TOKEN_LOCK) {
+			refillShare(share);
+			if (shareTokens > 0) {
+				return 0;
+			}
+			
+			return Math.max(1, (-shareTokens + 1) * 1000 / share);
+		}
+	}
+	
+	/**
+	 * Checks if this bucket or any of its parents has a limit
+	 */
+	private boolean hasLimit() {
+		return rate > 0 || (parent != null && parent.hasLimit());
+	}
+	
+	/**
+	 * Checks if this bucket or any of its parents has recently run out of tokens
+	 */
+	private boolean isContended() {
+		if (rate > 0 && System.nanoTime() - lastExhausted < CONTENTION_TIMEOUT) {
+			return true;
+		}
+		
+		return parent != null && parent.isContended();
+	}
+	
+	/**
+	 * Calculates the rate which is available to this bucket: its own limit or its share of the parent if that is lower
+	 * @return The rate in bytes per second or 0 if unlimited
+	 */
+	private long getAvailableRate() {
+		long parentShare = (parent == null) ? 0 : parent.getChildShare();
+		if (rate == 0) {
+			return parentShare;
+		}
+		
+		return (parentShare == 0) ? rate : Math.min(rate, parentShare);
+	}
+	
+	/**
+	 * Calculates the fair share of each active child of this bucket
+	 * @return The rate in bytes per second or 0 if unlimited
+	 */
+	private long getChildShare() {
+		long available = getAvailableRate();
+		if (available == 0) {
+			return 0;
+		}
+		
+		synchronized (TOKEN_LOCK) {
+			rollActivityWindow(System.nanoTime() / ACTIVITY_WINDOW);
+			return Math.max(1, available / Math.max(1, Math.max(activeChildren, previousActiveChildren)));
+		}
+	}
+	
+	/**
+	 * Counts the child as active in the current activity window
+	 * @param child The child which transferred or waited
+	 */
+	private void onChildActive(TokenBucket child) {
+		long window = System.nanoTime() / ACTIVITY_WINDOW;
+		if (child.activeWindow == window) {
+			return;
+		}
+		
+		child.activeWindow = window;
+		synchronized (TOKEN_LOCK) {
+			rollActivityWindow(window);
+			++activeChildren;
+		}
+	}
+	
+	private void rollActivityWindow(long window) {
+		if (countedWindow == window) {
+			return;
+		}
+		
+		previousActiveChildren = (countedWindow == window - 1) ? activeChildren : 0;
+		activeChildren = 0;
+		countedWindow = window;
+	}
+	
+	/**
+	 * Adds the tokens which have been earned since the last refill. A bucket holds at most one second worth of tokens.
+	 */
+	private void refill() {
+		int currentRate = rate;
+		if (currentRate == 0) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		long elapsed = now - lastRefill;
+		// Calculated in floating point as a long idle period would overflow the multiplication
+		long earned = (long) ((double) elapsed * currentRate / NANOS_PER_SECOND);
+		if (earned == 0) {
+			return;
+		}
+		
+		// Only advance by the time which has been converted into tokens to not lose the remainder
+		lastRefill += (long) ((double) earned * NANOS_PER_SECOND / currentRate);
+		tokens = Math.min(currentRate, tokens + earned);
+	}
+	
+	/**
+	 * Adds the share tokens which have been earned since the last refill, at most one second worth of them
+	 * @param share The fair share in bytes per second
+	 */
+	private void refillShare(long share) {
+		long now = System.nanoTime();
+		long earned = (long) ((double) (now - lastShareRefill) * share / NANOS_PER_SECOND);
+		if (earned == 0) {
+			return;
+		}
+		
+		lastShareRefill += (long) ((double) earned * NANOS_PER_SECOND / share);
+		shareTokens = Math.min(share, shareTokens + earned);
+	}
+
+}
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 
 /**
  * A socket layout to get multiple socket protocols work on the some functions<br/>
@@ -77,5 +80,46 @@ public interface ISocket {
 	 * Only supported in {@link UtpSocket}
 	 */
 	public void flush() throws IOException;
+	
+	/**
+	 * Checks if data has been written to this socket which has not yet been handed to the network<br/>
+	 * Only non-blocking sockets can hold pending output
+	 * @return true if a {@link #flush()} is still needed to send all data
+	 */
+	public boolean hasPendingOutput();
+	
+	/**
+	 * Gets the non-blocking channel which backs this socket so it can be registered on a {@link Selector}
+	 * @return The backing channel or <code>null</code> if this socket can only be polled
+	 */
+	public SocketChannel getChannel();
+	
+	/**
+	 * Sets the maximum time a blocking read on the input stream may take before it fails<br/>
+	 * Sockets of which the reads never block ignore this
+	 * @param timeout The timeout in milliseconds or 0 to wait indefinitely
+	 * @throws IOException When the timeout can't be applied
+	 */
+	public void setReadTimeout(int timeout) throws IOException;
+	
+	/**
+	 * Checks if this socket can send regions of a file without copying them through the output stream
+	 * @return true if {@link #transferFrom(FileChannel, long, long)} is supported
+	 */
+	public default boolean canTransferFiles() {
+		return false;
+	}
+	
+	/**
+	 * Queues a region of a file to be sent after all data which has already been written to this socket
+	 * @param fileChannel The file to send the data from
+	 * @param position The position within the file of the first byte to send
+	 * @param count The amount of bytes to send
+	 * @throws IOException When the region can't be queued
+	 * @throws UnsupportedOperationException When {@link #canTransferFiles()} returns false
+	 */
+	public default void transferFrom(FileChannel fileChannel, long position, long count) throws IOException {
+		throw new UnsupportedOperationException(String.format("%s can't transfer files.", getClass().getSimpleName()));
+	}
 
 }
@@ -0,0 +1,393 @@
+package torrent.network.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * A TCP socket which is backed by a non-blocking {@link SocketChannel}.<br/>
+ * The streams of this socket never block: The input stream only returns the data which has already arrived and the
+ * output stream buffers the data until {@link #flush()} is able to hand it to the network.<br/>
+ * File regions which are queued with {@link #transferFrom(FileChannel, long, long)} are sent by the kernel without
+ * being copied into the JVM.
+ */
+public class TcpChannelSocket implements ISocket {
+
+	private static final int CONNECT_TIMEOUT = 10_000;
+
+	private static final int INPUT_BUFFER_SIZE = 32768;
+
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+	private final Object OUTPUT_LOCK = new Object();
+
+	private SocketChannel channel;
+
+	/**
+	 * The bytes which have been read from the channel but not yet from the input stream.<br/>
+	 * The buffer is kept in read mode: the unread bytes are between the position and the limit.
+	 */
+	private ByteBuffer inputBuffer;
+
+	/**
+	 * The bytes which have been written to the output stream but not yet to the channel.<br/>
+	 * The buffer is kept in write mode: the pending bytes are between 0 and the position.
+	 */
+	private ByteBuffer outputBuffer;
+
+	/**
+	 * The data which has to be sent before the {@link #outputBuffer} in the order in which it was queued
+	 */
+	private Queue<OutputChunk> pendingChunks;
+
+	/**
+	 * Remembers if the channel has reached end of stream
+	 */
+	private boolean inputShutdown;
+
+	private InputStream inputStream;
+
+	private OutputStream outputStream;
+
+	public TcpChannelSocket() {
+		inputBuffer = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+		inputBuffer.flip();
+		outputBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+		pendingChunks = new LinkedList<>();
+		inputStream = new ChannelInputStream();
+		outputStream = new ChannelOutputStream();
+	}
+
+	/**
+	 * Creates a TcpChannelSocket on a pre-connected channel
+	 * @param channel The connected channel
+	 * @throws IOException When the channel can't be put in non-blocking mode
+	 */
+	public TcpChannelSocket(SocketChannel channel) throws IOException {
+		this();
+		this.channel = channel;
+		channel.configureBlocking(false);
+	}
+
+	@Override
+	public void connect(InetSocketAddress endpoint) throws IOException {
+		channel = SocketChannel.open();
+		try {
+			channel.socket().connect(endpoint, CONNECT_TIMEOUT);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads as many bytes as are available on the channel into the {@link #inputBuffer}
+	 * @throws IOException When the read fails
+	 */
+	private void fill() throws IOException {
+		if (inputShutdown || channel == null) {
+			return;
+		}
+
+		if (inputBuffer.limit() == inputBuffer.capacity()) {
+			if (inputBuffer.position() == 0) {
+				// Buffer is full
+				return;
+			}
+			inputBuffer.compact();
+			inputBuffer.flip();
+		}
+
+		int readPosition = inputBuffer.position();
+		int read;
+		inputBuffer.position(inputBuffer.limit());
+		inputBuffer.limit(inputBuffer.capacity());
+		try {
+			read = channel.read(inputBuffer);
+		} finally {
+			inputBuffer.limit(inputBuffer.position());
+			inputBuffer.position(readPosition);
+		}
+
+		if (read == -1) {
+			inputShutdown = true;
+			channel.close();
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return outputStream;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	@Override
+	public ISocket getFallbackSocket() {
+		return null;
+	}
+
+	@Override
+	public boolean canFallback() {
+		return false;
+	}
+
+	@Override
+	public boolean isConnecting() {
+		return false;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return channel == null || !channel.isOpen() || !channel.isConnected();
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return inputShutdown || channel.socket().isInputShutdown();
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return channel.socket().isOutputShutdown();
+	}
+
+	/**
+	 * Writes as many of the pending bytes as the channel accepts without blocking
+	 */
+	@Override
+	public void flush() throws IOException {
+		synchronized (OUTPUT_LOCK) {
+			while (!pendingChunks.isEmpty()) {
+				if (!pendingChunks.peek().writeTo(channel)) {
+					return;
+				}
+				pendingChunks.remove();
+			}
+
+			if (outputBuffer.position() == 0) {
+				return;
+			}
+
+			outputBuffer.flip();
+			try {
+				channel.write(outputBuffer);
+			} finally {
+				outputBuffer.compact();
+			}
+		}
+	}
+
+	@Override
+	public boolean hasPendingOutput() {
+		synchronized (OUTPUT_LOCK) {
+			return !pendingChunks.isEmpty() || outputBuffer.position() > 0;
+		}
+	}
+
+	/**
+	 * Reads on this socket never block so the timeout is ignored
+	 */
+	@Override
+	public void setReadTimeout(int timeout) {
+	}
+
+	@Override
+	public boolean canTransferFiles() {
+		return true;
+	}
+
+	@Override
+	public void transferFrom(FileChannel fileChannel, long position, long count) throws IOException {
+		synchronized (OUTPUT_LOCK) {
+			if (outputBuffer.position() > 0) {
+				// The bytes which have been written so far have to be sent before the file region
+				outputBuffer.flip();
+				ByteBuffer writtenBytes = ByteBuffer.allocate(outputBuffer.remaining());
+				writtenBytes.put(outputBuffer);
+				writtenBytes.flip();
+				outputBuffer.clear();
+				pendingChunks.add(new BufferChunk(writtenBytes));
+			}
+
+			pendingChunks.add(new FileChunk(fileChannel, position, count));
+		}
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Ensures that the {@link #outputBuffer} can hold the given amount of extra bytes
+	 * @param length The amount of bytes which are about to be written
+	 */
+	private void ensureOutputCapacity(int length) {
+		if (outputBuffer.remaining() >= length) {
+			return;
+		}
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(outputBuffer.capacity() * 2, outputBuffer.position() + length));
+		outputBuffer.flip();
+		newBuffer.put(outputBuffer);
+		outputBuffer = newBuffer;
+	}
+
+	@Override
+	public String toString() {
+		return channel.socket().getRemoteSocketAddress().toString().substring(1);
+	}
+
+	/**
+	 * A part of the output which has been sealed in order to keep it in front of the data which got written later
+	 */
+	private interface OutputChunk {
+
+		/**
+		 * Writes as much of this chunk as the channel accepts without blocking
+		 * @param channel The channel to write to
+		 * @return true if the entire chunk has been written
+		 * @throws IOException When the write fails
+		 */
+		boolean writeTo(SocketChannel channel) throws IOException;
+
+	}
+
+	private static class BufferChunk implements OutputChunk {
+
+		private ByteBuffer buffer;
+
+		public BufferChunk(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public boolean writeTo(SocketChannel channel) throws IOException {
+			channel.write(buffer);
+			return !buffer.hasRemaining();
+		}
+
+	}
+
+	private static class FileChunk implements OutputChunk {
+
+		private FileChannel fileChannel;
+
+		private long position;
+
+		private long remaining;
+
+		public FileChunk(FileChannel fileChannel, long position, long count) {
+			this.fileChannel = fileChannel;
+			this.position = position;
+			this.remaining = count;
+		}
+
+		@Override
+		public boolean writeTo(SocketChannel channel) throws IOException {
+			if (position + remaining > fileChannel.size()) {
+				// transferTo silently stops at the end of the file which would stall the connection
+				throw new IOException(String.format("File region %d-%d is beyond the end of the file.", position, position + remaining));
+			}
+
+			long transferred = fileChannel.transferTo(position, remaining, channel);
+			position += transferred;
+			remaining -= transferred;
+			return remaining == 0;
+		}
+
+	}
+
+	/**
+	 * A non-blocking view on the {@link TcpChannelSocket#inputBuffer}.<br/>
+	 * Reads return <code>-1</code> when no data has arrived yet.
+	 */
+	private class ChannelInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			if (!inputBuffer.hasRemaining()) {
+				fill();
+			}
+
+			if (!inputBuffer.hasRemaining()) {
+				return -1;
+			}
+
+			return inputBuffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (!inputBuffer.hasRemaining()) {
+				fill();
+			}
+
+			if (!inputBuffer.hasRemaining()) {
+				return -1;
+			}
+
+			int length = Math.min(len, inputBuffer.remaining());
+			inputBuffer.get(b, off, length);
+			return length;
+		}
+
+		@Override
+		public int available() throws IOException {
+			fill();
+			return inputBuffer.remaining();
+		}
+
+	}
+
+	/**
+	 * Buffers all written data into the {@link TcpChannelSocket#outputBuffer}
+	 */
+	private class ChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			synchronized (OUTPUT_LOCK) {
+				ensureOutputCapacity(1);
+				outputBuffer.put((byte) b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			synchronized (OUTPUT_LOCK) {
+				ensureOutputCapacity(len);
+				outputBuffer.put(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			TcpChannelSocket.this.flush();
+		}
+
+	}
+
+}
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class TcpSocket implements ISocket {
 
@@ -81,4 +82,19 @@ public class TcpSocket implements ISocket {
 	public void flush() throws IOException {
 	}
 
+	@Override
+	public boolean hasPendingOutput() {
+		return false;
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public void setReadTimeout(int timeout) throws IOException {
+		socket.setSoTimeout(timeout);
+	}
+
 }
@@ -3,9 +3,10 @@ package torrent.network.protocol;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Random;
 
@@ -13,20 +14,53 @@ import org.johnnei.utils.ThreadUtils;
 
 import torrent.network.Stream;
 import torrent.network.protocol.utp.ConnectionState;
+import torrent.network.protocol.utp.InFlightPackets;
+import torrent.network.protocol.utp.LedbatController;
+import torrent.network.protocol.utp.PathMtuDiscovery;
+import torrent.network.protocol.utp.TimingWheel;
 import torrent.network.protocol.utp.UdpMultiplexer;
 import torrent.network.protocol.utp.UtpClient;
 import torrent.network.protocol.utp.UtpInputStream;
 import torrent.network.protocol.utp.UtpOutputStream;
 import torrent.network.protocol.utp.packet.Packet;
+import torrent.network.protocol.utp.packet.PacketData;
 import torrent.network.protocol.utp.packet.PacketFin;
-import torrent.network.protocol.utp.packet.PacketSample;
 import torrent.network.protocol.utp.packet.PacketState;
 import torrent.network.protocol.utp.packet.PacketSyn;
 import torrent.network.protocol.utp.packet.UtpProtocol;
-import torrent.util.tree.BinarySearchTree;
 
-public class UtpSocket implements ISocket, Comparable<UtpSocket> {
+public class UtpSocket implements ISocket {
 
+	/**
+	 * The amount of later packets which have to be selectively acked before a missing packet is considered lost
+	 */
+	private static final int DUPLICATE_ACKS_BEFORE_RESEND = 3;
+	
+	/**
+	 * The amount of data packets which are received in order before an ack is sent right away
+	 */
+	private static final int PACKETS_PER_ACK = 2;
+	
+	/**
+	 * The time in milliseconds for which an ack may be held back waiting for more data or a packet to piggyback on
+	 */
+	private static final int ACK_DELAY = 50;
+	
+	/**
+	 * The lower limit of the retransmission timeout in milliseconds
+	 */
+	private static final int MIN_TIMEOUT = 500;
+	
+	/**
+	 * The upper limit of the retransmission timeout in milliseconds, the backoff stops doubling at this point
+	 */
+	private static final int MAX_TIMEOUT = 60_000;
+
+	/**
+	 * The receive window which we advertise to the peer
+	 */
+	private static final int RECEIVE_WINDOW = 1024 * 1024;
+	
 	private InetSocketAddress socketAddress;
 	private ConnectionState connectionState;
 	private UtpClient myClient;
@@ -35,10 +69,6 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	 * The timestamp (ms) of the last incoming or outgoing packet
 	 */
 	private long lastInteraction;
-	/**
-	 * The timestamp (ms) of the last timeout
-	 */
-	private long lastTimeout;
 	/**
 	 * The packets which could not be send due to windowSize constraints
 	 */
@@ -46,7 +76,7 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	/**
 	 * The packets which not yet have been acked
 	 */
-	private BinarySearchTree<Packet> packetsInFlight;
+	private InFlightPackets packetsInFlight;
 	/**
 	 * The total amount of bytes in flight
 	 */
@@ -60,9 +90,21 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	 */
 	private int acknowledgeNumber;
 	/**
-	 * The timeout which is allowed on this socket for a packet
+	 * The retransmission timeout (ms): the time after which the oldest packet in flight is resent
 	 */
 	private int timeout;
+	/**
+	 * The time (ms) at which the oldest packet in flight is resent or 0 if nothing is in flight
+	 */
+	private long retransmitDeadline;
+	/**
+	 * The last acknowledge number which the peer sent
+	 */
+	private int lastReceivedAcknowledgeNumber;
+	/**
+	 * The amount of acks in a row which didn't acknowledge new packets
+	 */
+	private int duplicateAcks;
 	/**
 	 * The last packet we will receive
 	 */
@@ -78,18 +120,42 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	private UtpInputStream inStream;
 	private UtpOutputStream outStream;
 	/**
-	 * The size of packets
+	 * The search for the largest packet size which reaches the peer
 	 */
-	private int packetSize;
-	
+	private PathMtuDiscovery mtuDiscovery;
 	/**
-	 * Creates a sample socket for comparison
-	 * @param connectionId
+	 * The timer which checks for timeouts and the completion of the disconnect
 	 */
-	public UtpSocket(short connectionId) {
-		peerClient = new UtpClient();
-		peerClient.setConnectionId(connectionId);
-	}
+	private TimingWheel.Timer timer;
+	/**
+	 * The time (ms) for which the timer is scheduled or 0 if it isn't scheduled
+	 */
+	private long timerDeadline;
+	/**
+	 * The amount of received packets which have not been acked yet
+	 */
+	private int unackedPackets;
+	/**
+	 * The time (ms) at which the held back ack has to be sent or 0 if no ack is held back
+	 */
+	private long ackDeadline;
+	/**
+	 * The congestion control which limits the amount of bytes in flight
+	 */
+	private LedbatController congestionControl;
+	/**
+	 * The data packet which probes a larger MTU or null if there is none<br/>
+	 * No packet is numbered after the probe until it has been acknowledged, so a lost probe can be split.
+	 */
+	private PacketData probePacket;
+	/**
+	 * If the peer has been asked whether the probe arrived
+	 */
+	private boolean probeLossCheck;
+	/**
+	 * The timestamp at which the last check whether the probe arrived has been sent
+	 */
+	private int probeLossCheckTimestamp;
 	
 	public UtpSocket() {
 		connectionState = ConnectionState.CONNECTING;
@@ -97,17 +163,20 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		myClient = new UtpClient();
 		peerClient = new UtpClient();
 		packetQueue = new LinkedList<>();
-		packetsInFlight = new BinarySearchTree<>();
+		packetsInFlight = new InFlightPackets();
+		timeout = 1000;
+		congestionControl = new LedbatController();
+		mtuDiscovery = new PathMtuDiscovery();
 		inStream = new UtpInputStream();
 		outStream = new UtpOutputStream(this);
-		timeout = 1000;
-		packetSize = 150;
+		myClient.setWindowSize(RECEIVE_WINDOW);
 	}
 	
 	@Override
 	public void connect(InetSocketAddress endpoint) throws IOException {
 		//System.out.println("[uTP] Connecting to " + endpoint);
 		this.socketAddress = endpoint;
+		mtuDiscovery = new PathMtuDiscovery(endpoint);
 		peerClient.setConnectionId(new Random().nextInt() & 0xFFFF);
 		myClient.setConnectionId(peerClient.getConnectionId() + 1);
 		sequenceNumber = 1;
@@ -123,7 +192,7 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		}
 		if(connectionState == ConnectionState.CONNECTING) {
 			connectionState = ConnectionState.CLOSED;
-			UdpMultiplexer.getInstance().unregister(this);
+			unregister();
 			throw new IOException("Host unreachable");
 		}
 	}
@@ -147,7 +216,7 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 
 	@Override
 	public ISocket getFallbackSocket() {
-		return new TcpSocket();
+		return new TcpChannelSocket();
 	}
 
 	@Override
@@ -178,23 +247,18 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		return peerClient;
 	}
 
-	@Override
-	public int compareTo(UtpSocket otherSocket) {
-		return peerClient.getConnectionId() - otherSocket.getPeerClient().getConnectionId();
-	}
-	
 	/**
 	 * Gets the sequence number and then advances it to the next number
 	 * @return
 	 */
 	public synchronized int getNextSequenceNumber() {
-		short seqnr = getSequenceNumber();
+		int seqnr = sequenceNumber & 0xFFFF;
 		++sequenceNumber;
 		return seqnr;
 	}
 
-	public short getSequenceNumber() {
-		return (short)(sequenceNumber & 0xFFFF);
+	public int getSequenceNumber() {
+		return sequenceNumber & 0xFFFF;
 	}
 
 	public int getAcknowledgeNumber() {
@@ -205,32 +269,230 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		this.sequenceNumber = sequenceNumber;
 	}
 
-	public void setAcknowledgeNumber(int acknowledgeNumber, boolean needAck) {
-		if(acknowledgeNumber > this.acknowledgeNumber)
-			this.acknowledgeNumber = acknowledgeNumber;
-		if(needAck) {
-			//System.out.println(myClient.getConnectionId() + "| Ack Send: " + acknowledgeNumber);
-			sendPacket(new PacketState(acknowledgeNumber));
+	/**
+	 * Acknowledges a received packet<br/>
+	 * The acknowledge number is the last packet up to which everything has been received, the packets which arrived
+	 * out of order are acknowledged with the selective ack.
+	 * Data which arrives in order is acked for every {@link #PACKETS_PER_ACK} packets or after {@link #ACK_DELAY}, unless
+	 * an outgoing packet carries the ack before that. Packets which arrive out of order are acked right away so that the
+	 * peer can resend the missing packets.
+	 * @param acknowledgeNumber The sequence number of the received packet
+	 * @param needAck If the packet consumed a sequence number and has to be acknowledged
+	 * @param canDelay If the ack for this packet may be held back
+	 */
+	public synchronized void setAcknowledgeNumber(int acknowledgeNumber, boolean needAck, boolean canDelay) {
+		if(!needAck) {
+			return;
+		}
+		this.acknowledgeNumber = inStream.getLastSequenceNumber();
+		if(connectionState == ConnectionState.DISCONNECTING && finalAckNumber == ((this.acknowledgeNumber + 1) & 0xFFFF)) {
+			//All data up to the fin has been received
+			this.acknowledgeNumber = finalAckNumber;
+		}
+		byte[] selectiveAck = inStream.getSelectiveAck();
+		if(canDelay && selectiveAck == null && ++unackedPackets < PACKETS_PER_ACK) {
+			if(ackDeadline == 0) {
+				ackDeadline = System.currentTimeMillis() + ACK_DELAY;
+				scheduleTimer();
+			}
+			return;
 		}
+		//System.out.println(myClient.getConnectionId() + "| Ack Send: " + acknowledgeNumber);
+		sendPacket(new PacketState(this.acknowledgeNumber, selectiveAck));
 	}
 	
 	/**
-	 * Acknowledges the packet<br/>
-	 * Removes the packet from packetsInflight, if it did remove one it will also reduce the number of bytesInFlight
+	 * Sends the held back ack if its deadline has passed
+	 */
+	private synchronized void sendDelayedAcknowledgement() {
+		if(ackDeadline != 0 && System.currentTimeMillis() >= ackDeadline) {
+			sendPacket(new PacketState(acknowledgeNumber, inStream.getSelectiveAck()));
+		}
+	}
+	
+	/**
+	 * Acknowledges the packet and all packets before it<br/>
+	 * Removes the packets from packetsInflight and reduces the number of bytesInFlight accordingly. An ack which doesn't
+	 * acknowledge anything new while packets are in flight is a duplicate, after {@link #DUPLICATE_ACKS_BEFORE_RESEND}
+	 * duplicates the packet after the acknowledge number is considered lost and resent.
 	 * @param acknowledgeNumber
+	 * @param echoedTimestamp The timestamp of the packet minus the delay it echoes, this is the time (in our clock) at
+	 * which the last packet the peer received before sending it was sent, plus the time the peer held on to it
+	 * @param canBeDuplicate If the packet only carries the ack, packets with data repeat the ack without meaning a loss
+	 */
+	public synchronized void acknowledgedPacket(int acknowledgeNumber, int echoedTimestamp, boolean canBeDuplicate) {
+		boolean acknowledgedNewPacket = false;
+		Packet packet;
+		while((packet = packetsInFlight.removeUpTo(acknowledgeNumber)) != null) {
+			onPacketAcknowledged(packet);
+			acknowledgedNewPacket = true;
+		}
+		
+		if(isProbeLossCheckAnswer(acknowledgeNumber, echoedTimestamp)) {
+			//The peer answered the check without having received the probe
+			splitLostProbe();
+		} else if(acknowledgedNewPacket) {
+			duplicateAcks = 0;
+			restartRetransmitTimer();
+		} else if(canBeDuplicate && !packetsInFlight.isEmpty() && acknowledgeNumber == lastReceivedAcknowledgeNumber) {
+			if(++duplicateAcks == DUPLICATE_ACKS_BEFORE_RESEND && fastRetransmit((acknowledgeNumber + 1) & 0xFFFF)) {
+				congestionControl.onPacketLoss();
+			}
+		}
+		lastReceivedAcknowledgeNumber = acknowledgeNumber;
+		//The acked packets made room in the window
+		sendPacketQueue();
+	}
+	
+	/**
+	 * Acknowledges the packets which are marked in the selective ack bitmask and resends the packets which are missing
+	 * while at least {@link #DUPLICATE_ACKS_BEFORE_RESEND} later packets did arrive
+	 * @param acknowledgeNumber The last packet which the peer received in order
+	 * @param selectiveAck The bitmask of which bit <i>i</i> represents the packet <code>acknowledgeNumber + 2 + i</code>
+	 */
+	public synchronized void selectiveAcknowledgedPackets(int acknowledgeNumber, byte[] selectiveAck) {
+		int bitCount = selectiveAck.length * 8;
+		for(int bit = 0; bit < bitCount; bit++) {
+			if(isSelectivelyAcked(selectiveAck, bit)) {
+				removePacketInFlight((acknowledgeNumber + 2 + bit) & 0xFFFF);
+			}
+		}
+		
+		//Walk back from the end so the amount of acked packets after each missing packet is known
+		boolean packetLost = false;
+		int ackedAfter = 0;
+		for(int bit = bitCount - 1; bit >= -1; bit--) {
+			if(bit >= 0 && isSelectivelyAcked(selectiveAck, bit)) {
+				ackedAfter++;
+				continue;
+			}
+			if(ackedAfter < DUPLICATE_ACKS_BEFORE_RESEND) {
+				continue;
+			}
+			if(fastRetransmit((acknowledgeNumber + 2 + bit) & 0xFFFF)) {
+				packetLost = true;
+			}
+		}
+		
+		if(packetLost) {
+			congestionControl.onPacketLoss();
+		}
+		sendPacketQueue();
+	}
+	
+	private static boolean isSelectivelyAcked(byte[] selectiveAck, int bit) {
+		return (selectiveAck[bit / 8] & (1 << (bit % 8))) != 0;
+	}
+	
+	/**
+	 * Resends a packet which is considered lost before its retransmission timeout
+	 * @param sequenceNumber The sequence number of the lost packet
+	 * @return true if the packet was in flight and hadn't been resent yet
+	 */
+	private boolean fastRetransmit(int sequenceNumber) {
+		Packet packet = packetsInFlight.get(sequenceNumber);
+		if(packet == null || packet.isResent() || packet == probePacket) {
+			//A probe may be too large for the path, it is only resent after checking that it didn't arrive
+			return false;
+		}
+		sendPacketToPeer(packet);
+		return true;
+	}
+	
+	/**
+	 * Removes the packet from packetsInFlight and updates the RTT and the window if it was in flight
+	 * @param sequenceNumber The sequence number of the acked packet
 	 */
-	public void acknowledgedPacket(int acknowledgeNumber) {
-		Packet p = new PacketSample(acknowledgeNumber);
-		p = packetsInFlight.remove(p);
+	private void removePacketInFlight(int sequenceNumber) {
+		Packet p = packetsInFlight.remove(sequenceNumber);
 		if(p != null) {
-			//System.out.println(peerClient.getConnectionId() + "| Acked " + p.getClass().getSimpleName());
-			bytesInFlight -= p.getSize();
-			updateTimeoutRTT(p);
+			onPacketAcknowledged(p);
+			restartRetransmitTimer();
+		}
+	}
+	
+	private void onPacketAcknowledged(Packet p) {
+		//System.out.println(peerClient.getConnectionId() + "| Acked " + p.getClass().getSimpleName());
+		bytesInFlight -= p.getSize();
+		updateTimeoutRTT(p);
+		congestionControl.onAcknowledged(p.getSize());
+		mtuDiscovery.onAcknowledged();
+		if(p == probePacket) {
+			mtuDiscovery.onProbeAcknowledged();
+			probePacket = null;
+			probeLossCheck = false;
+		}
+	}
+	
+	/**
+	 * Asks the peer if the probe arrived by sending an empty duplicate of the packet before it<br/>
+	 * Resending the probe in smaller packets is only safe when the peer doesn't have it, otherwise the data after the
+	 * split would be received twice. The peer answers with the last packet it received in order, if that is the one
+	 * before the probe then it got lost and {@link #acknowledgedPacket(int, int, boolean)} splits it.
+	 */
+	private void sendProbeLossCheck() {
+		PacketData check = PacketData.createDuplicate((probePacket.getSequenceNumber() - 1) & 0xFFFF);
+		sendPacket(check);
+		probeLossCheck = true;
+		probeLossCheckTimestamp = (int) check.getSendTime();
+	}
+	
+	/**
+	 * Checks if the ack answers the check whether the probe arrived<br/>
+	 * Acks of the packet before the probe which were sent before the check reached the peer, such as a delayed ack,
+	 * don't tell whether the probe arrived. Only an ack of which the echoed timestamp is not older than the check was
+	 * sent after the peer received the check (or a later packet) and still missed the probe.
+	 * @param acknowledgeNumber The ack of the received packet
+	 * @param echoedTimestamp The time at which the packet which the peer answered was sent
+	 * @return true if the probe is known to be lost
+	 */
+	private boolean isProbeLossCheckAnswer(int acknowledgeNumber, int echoedTimestamp) {
+		if(!probeLossCheck || acknowledgeNumber != ((probePacket.getSequenceNumber() - 1) & 0xFFFF)) {
+			return false;
 		}
+		//The timestamps wrap around
+		return echoedTimestamp - probeLossCheckTimestamp >= 0;
+	}
+	
+	/**
+	 * Replaces the lost probe with packets of the confirmed size<br/>
+	 * Nothing has been numbered after the probe, so the sequence number is rewound and the data is queued again in front
+	 * of the packets which haven't been sent yet.
+	 */
+	private void splitLostProbe() {
+		PacketData probe = probePacket;
+		int probeSequenceNumber = probe.getSequenceNumber() & 0xFFFF;
+		packetsInFlight.remove(probeSequenceNumber);
+		bytesInFlight -= probe.getSize();
+		probePacket = null;
+		probeLossCheck = false;
+		mtuDiscovery.onProbeLost();
+		sequenceNumber = probeSequenceNumber;
+		
+		byte[] data = probe.getData();
+		int size = getPacketSize();
+		LinkedList<Packet> packets = new LinkedList<>();
+		for(int offset = 0; offset < data.length; offset += size) {
+			PacketData packet = new PacketData(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + size)));
+			packet.setSocket(this);
+			packets.add(packet);
+		}
+		packetQueue.addAll(0, packets);
+		restartRetransmitTimer();
+	}
+	
+	/**
+	 * Starts the retransmission timeout for the oldest packet in flight
+	 */
+	private void restartRetransmitTimer() {
+		retransmitDeadline = packetsInFlight.isEmpty() ? 0 : System.currentTimeMillis() + timeout;
+		scheduleTimer();
 	}
 	
 	/**
-	 * Updates the RTT based on a RTT
+	 * Updates the RTT based on a RTT<br/>
+	 * Packets which have been resent are ignored as the ack can't be matched to one of the sends (Karn's algorithm), this
+	 * also keeps the backed off timeout until a packet got through on its first send.
 	 * @param packet The acked packet
 	 */
 	private void updateTimeoutRTT(Packet packet) {
@@ -247,25 +509,47 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	}
 	
 	private void setTimeout(int timeout) {
-		this.timeout = Math.max(500, timeout);
+		this.timeout = Math.min(MAX_TIMEOUT, Math.max(MIN_TIMEOUT, timeout));
+	}
+	
+	/**
+	 * Gets the retransmission timeout
+	 * @return The timeout in milliseconds
+	 */
+	int getTimeout() {
+		return timeout;
 	}
 	
 	/**
 	 * Adds this packet to the queue and then tries to send all packets in the queue
 	 * @param packet
 	 */
-	public void sendPacket(Packet packet) {
+	public synchronized void sendPacket(Packet packet) {
 		packet.setSocket(this);
+		if(!packet.needAcknowledgement()) {
+			//Acks don't occupy the window, so they don't have to wait behind data which does
+			sendPacketToPeer(packet);
+			return;
+		}
 		packetQueue.addLast(packet);
 		sendPacketQueue();
 	}
 	
 	private synchronized void sendPacketQueue() {
+		int window = Math.min(peerClient.getWindowSize(), congestionControl.getWindow());
 		while(!packetQueue.isEmpty()) {
-			Packet packet = packetQueue.removeFirst();
-			if(packet.getSize() + bytesInFlight < peerClient.getWindowSize()) {
-				sendPacketToPeer(packet);
-			} else {
+			Packet packet = packetQueue.getFirst();
+			// Acks don't occupy the window and a packet larger than the window may be sent when nothing is in flight
+			if(packet.needAcknowledgement() && bytesInFlight > 0 && packet.getSize() + bytesInFlight > window) {
+				congestionControl.onWindowFull();
+				break;
+			}
+			if(packet.needAcknowledgement() && probePacket != null && packet != probePacket && probePacket.getSequenceNumber() != -1) {
+				//The probe is in flight, it can only be split while it is the last numbered packet
+				break;
+			}
+			packetQueue.removeFirst();
+			if(!sendPacketToPeer(packet)) {
 				break;
 			}
 		}
@@ -275,43 +559,124 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 	 * Sends a packet to the peer<br/>
 	 * Checks with windows should be applied before calling this function
 	 * @param packet
+	 * @return true if the packet has been sent, otherwise it has been put back in front of the queue
 	 */
-	private void sendPacketToPeer(Packet packet) {
+	private boolean sendPacketToPeer(Packet packet) {
 		Stream outStream = new Stream(packet.getSize());
 		packet.write(outStream);
 		byte[] dataBuffer = outStream.getBuffer();
-		DatagramPacket udpPacket;
 		try {
-			udpPacket = new DatagramPacket(dataBuffer, dataBuffer.length, socketAddress);
 			//System.out.println(myClient.getConnectionId() + "| Send " + packet.getClass().getSimpleName() + " with id: " + packet.getSequenceNumber() + ", their delay: " + peerClient.getDelay());
-			if(!UdpMultiplexer.getInstance().send(udpPacket)) {
+			if(!sendDatagram(dataBuffer, outStream.getWritePointer())) {
 				throw new SocketException("Failed to send packet");
 			}
-			if(packet.needAcknowledgement() && packetsInFlight.find(packet) == null) {
+			if(packet.needAcknowledgement() && packetsInFlight.get(packet.getSequenceNumber()) == null) {
+				boolean wasIdle = packetsInFlight.isEmpty();
 				packetsInFlight.add(packet);
 				bytesInFlight += dataBuffer.length;
+				if(wasIdle) {
+					restartRetransmitTimer();
+				}
 			}
+			//Every packet carries the current acknowledge number, so a held back ack is no longer needed
+			unackedPackets = 0;
+			ackDeadline = 0;
 		} catch (SocketException e) {
-			packetQueue.addFirst(packet);
+			//A resend stays in flight and will be resent by the timeout
+			if(packetsInFlight.get(packet.getSequenceNumber()) != packet) {
+				packetQueue.addFirst(packet);
+			}
+			return false;
 		}
 		updateLastInteraction();
+		return true;
+	}
+	
+	/**
+	 * Sends the datagram to the peer
+	 * @param data The buffer containing the packet
+	 * @param length The length of the packet in the buffer
+	 * @return If the datagram has been handed to the network
+	 */
+	boolean sendDatagram(byte[] data, int length) {
+		return UdpMultiplexer.getInstance().send(data, length, socketAddress);
+	}
+	
+	/**
+	 * Gets the timing wheel on which the timer of this socket runs
+	 * @return The timing wheel
+	 */
+	TimingWheel getTimingWheel() {
+		return UdpMultiplexer.getInstance().getTimingWheel();
 	}
 	
 	public void updateLastInteraction() {
 		lastInteraction = System.currentTimeMillis();
 	}
 	
-	public void checkTimeouts() {
+	/**
+	 * Checks the timeouts and the disconnect when the timer expires and schedules the next check
+	 */
+	private synchronized void onTimer() {
+		timerDeadline = 0;
+		sendDelayedAcknowledgement();
+		checkTimeouts();
+		checkDisconnect();
+		scheduleTimer();
+	}
+	
+	/**
+	 * Schedules the timer at the retransmission timeout or when the held back ack is due, whichever comes first<br/>
+	 * A deadline which moves further away doesn't reschedule the timer, it checks again when it expires.
+	 */
+	private void scheduleTimer() {
+		if(connectionState == ConnectionState.CLOSED) {
+			return;
+		}
+		long deadline = retransmitDeadline;
+		if(ackDeadline != 0 && (deadline == 0 || ackDeadline < deadline)) {
+			deadline = ackDeadline;
+		}
+		if(deadline == 0 || (timerDeadline != 0 && timerDeadline <= deadline)) {
+			return;
+		}
+		if(timer == null) {
+			timer = getTimingWheel().newTimer(this::onTimer);
+		}
+		timerDeadline = deadline;
+		getTimingWheel().schedule(timer, Math.max(1, deadline - System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Stops receiving packets and checking for timeouts
+	 */
+	private void unregister() {
+		UdpMultiplexer.getInstance().unregister(this);
+		if(timer != null) {
+			getTimingWheel().cancel(timer);
+		}
+	}
+	
+	/**
+	 * Resends the oldest packet in flight when the retransmission timeout has passed and doubles the timeout
+	 */
+	public synchronized void checkTimeouts() {
 		if(connectionState == ConnectionState.CONNECTING)
 			return;
-		if(System.currentTimeMillis() - lastInteraction >= timeout) {
-			if(lastTimeout == lastInteraction) {
+		if(retransmitDeadline != 0 && System.currentTimeMillis() >= retransmitDeadline) {
+			Packet oldestPacket = packetsInFlight.getOldest();
+			if(oldestPacket != null) {
 				setTimeout(2 * timeout);
+				congestionControl.onTimeout();
+				mtuDiscovery.onTimeout();
+				if(oldestPacket == probePacket) {
+					//Everything before the probe arrived, so it may have been too large for the path
+					sendProbeLossCheck();
+				} else {
+					sendPacketToPeer(oldestPacket);
+				}
 			}
-			updateLastInteraction();
-			lastTimeout = lastInteraction;
-			packetSize = 150;
-			myClient.setWindowSize(150);
+			restartRetransmitTimer();
 		}
 		sendPacketQueue();
 	}
@@ -330,6 +695,14 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		return connectionState == ConnectionState.CONNECTING;
 	}
 	
+	/**
+	 * Gets the address of the peer
+	 * @return The address to which the packets are sent
+	 */
+	public InetSocketAddress getSocketAddress() {
+		return socketAddress;
+	}
+	
 	@Override
 	public String toString() {
 		return socketAddress.toString().substring(1);
@@ -351,7 +724,7 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		if(connectionState == ConnectionState.DISCONNECTING) {
 			if(acknowledgeNumber == finalAckNumber && bytesInFlight == 0) {
 				setConnectionState(ConnectionState.CLOSED);
-				UdpMultiplexer.getInstance().unregister(this);
+				unregister();
 			}
 		}
 	}
@@ -360,8 +733,59 @@ public class UtpSocket implements ISocket, Comparable<UtpSocket> {
 		inStream.setSequenceNumber(sequenceNumber);
 	}
 	
+	/**
+	 * Gets the size of the payload of the next data packet<br/>
+	 * The size follows the discovered MTU but is limited to half of the congestion window so that multiple packets can be
+	 * in flight
+	 * @return The size in bytes
+	 */
 	public int getPacketSize() {
-		return packetSize;
+		return Math.max(LedbatController.MIN_WINDOW, Math.min(mtuDiscovery.getPayloadSize(), congestionControl.getWindow() / 2));
+	}
+	
+	/**
+	 * Creates the next data packet from the data which is waiting to be sent<br/>
+	 * The packet is of {@link #getPacketSize()} unless a probe is due, then this packet becomes the probe. The probe is
+	 * recorded right away so that only a single packet at a time is larger than the confirmed MTU.
+	 * @param array The buffer containing the data
+	 * @param offset The offset of the data in the buffer
+	 * @param length The amount of bytes which are waiting to be sent
+	 * @return The packet which carries the first part of the data
+	 */
+	public synchronized PacketData createDataPacket(byte[] array, int offset, int length) {
+		int size = Math.min(getPacketSize(), length);
+		boolean isProbe = false;
+		if(probePacket == null) {
+			int probeSize = Math.min(mtuDiscovery.getProbePayloadSize(), length);
+			if(probeSize > size && probeSize <= congestionControl.getWindow() / 2) {
+				size = probeSize;
+				isProbe = true;
+			}
+		}
+		PacketData packet = new PacketData(Arrays.copyOfRange(array, offset, offset + size));
+		if(isProbe) {
+			probePacket = packet;
+			mtuDiscovery.onProbeCreated(packet.getSize());
+		}
+		return packet;
+	}
+	
+	public LedbatController getCongestionControl() {
+		return congestionControl;
+	}
+
+	@Override
+	public boolean hasPendingOutput() {
+		return false;
+	}
+
+	@Override
+	public SocketChannel getChannel() {
+		return null;
+	}
+
+	@Override
+	public void setReadTimeout(int timeout) {
 	}
 
 }
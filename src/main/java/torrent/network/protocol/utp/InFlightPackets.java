@@ -0,0 +1,144 @@
+package torrent.network.protocol.utp;
+
+import torrent.network.protocol.utp.packet.Packet;
+
+/**
+ * The packets which have been sent but not yet acknowledged, in a ring indexed by their 16-bit sequence number.<br/>
+ * The packets in flight always span a range of sequence numbers from the oldest unacknowledged packet up to the last
+ * sent packet, so a ring which covers that range finds every packet in constant time. The ring grows when the range
+ * gets larger than the ring.<br/>
+ * This class is not thread-safe, the {@link torrent.network.protocol.UtpSocket} guards it.
+ */
+public class InFlightPackets {
+	
+	private static final int INITIAL_CAPACITY = 256;
+	
+	/**
+	 * The packets at <code>sequenceNumber & (packets.length - 1)</code>, the length is always a power of two
+	 */
+	private Packet[] packets;
+	
+	/**
+	 * The sequence number of the oldest packet in flight
+	 */
+	private int first;
+	
+	/**
+	 * The sequence number after the newest packet in flight
+	 */
+	private int end;
+	
+	private int size;
+	
+	public InFlightPackets() {
+		packets = new Packet[INITIAL_CAPACITY];
+	}
+	
+	/**
+	 * Adds a packet, the sequence number must be after all packets in flight
+	 * @param packet The sent packet
+	 */
+	public void add(Packet packet) {
+		int sequenceNumber = packet.getSequenceNumber() & 0xFFFF;
+		if(size == 0) {
+			first = sequenceNumber;
+			end = sequenceNumber;
+		}
+		
+		int range = ((sequenceNumber - first) & 0xFFFF) + 1;
+		if(range > packets.length) {
+			resize(Integer.highestOneBit(range - 1) << 1);
+		}
+		
+		packets[sequenceNumber & (packets.length - 1)] = packet;
+		++size;
+		if(distance(end, sequenceNumber) >= 0) {
+			end = (sequenceNumber + 1) & 0xFFFF;
+		}
+	}
+	
+	/**
+	 * Gets the packet with the given sequence number
+	 * @param sequenceNumber The sequence number
+	 * @return The packet or <code>null</code> if it isn't in flight
+	 */
+	public Packet get(int sequenceNumber) {
+		sequenceNumber &= 0xFFFF;
+		if(!isInRange(sequenceNumber)) {
+			return null;
+		}
+		
+		Packet packet = packets[sequenceNumber & (packets.length - 1)];
+		if(packet == null || (packet.getSequenceNumber() & 0xFFFF) != sequenceNumber) {
+			return null;
+		}
+		return packet;
+	}
+	
+	/**
+	 * Removes the packet with the given sequence number
+	 * @param sequenceNumber The sequence number
+	 * @return The removed packet or <code>null</code> if it wasn't in flight
+	 */
+	public Packet remove(int sequenceNumber) {
+		Packet packet = get(sequenceNumber);
+		if(packet == null) {
+			return null;
+		}
+		
+		packets[sequenceNumber & (packets.length - 1)] = null;
+		--size;
+		//Advance the start of the range past the acknowledged packets
+		while(size > 0 && packets[first & (packets.length - 1)] == null) {
+			first = (first + 1) & 0xFFFF;
+		}
+		return packet;
+	}
+	
+	/**
+	 * Removes the oldest packet if it is acknowledged by the cumulative ack
+	 * @param acknowledgeNumber The last sequence number which the peer received in order
+	 * @return The removed packet or <code>null</code> if no packet up to the acknowledge number is in flight
+	 */
+	public Packet removeUpTo(int acknowledgeNumber) {
+		if(size == 0 || distance(first, acknowledgeNumber & 0xFFFF) < 0) {
+			return null;
+		}
+		return remove(first);
+	}
+	
+	/**
+	 * Gets the oldest packet in flight
+	 * @return The packet or <code>null</code> if nothing is in flight
+	 */
+	public Packet getOldest() {
+		return (size == 0) ? null : packets[first & (packets.length - 1)];
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	private boolean isInRange(int sequenceNumber) {
+		return size > 0 && ((sequenceNumber - first) & 0xFFFF) < ((end - first) & 0xFFFF);
+	}
+	
+	/**
+	 * Calculates the signed distance between two sequence numbers
+	 * @return The amount of packets from a to b, negative if b is before a
+	 */
+	private static int distance(int a, int b) {
+		return (short) (b - a);
+	}
+	
+	private void resize(int capacity) {
+		Packet[] oldPackets = packets;
+		packets = new Packet[capacity];
+		for(Packet packet : oldPackets) {
+			if(packet != null) {
+				packets[packet.getSequenceNumber() & (capacity - 1)] = packet;
+			}
+		}
+	}
+
+}
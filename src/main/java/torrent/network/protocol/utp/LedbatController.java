@@ -0,0 +1,197 @@
+package torrent.network.protocol.utp;
+
+import java.util.Arrays;
+
+/**
+ * The LEDBAT congestion control as described in BEP 29.<br/>
+ * The window grows while the one-way queuing delay stays below {@link #TARGET_DELAY} and shrinks when it exceeds it,
+ * the change is scaled by how far the delay is off target and by the share of the window which got acknowledged. This
+ * makes uTP use the spare capacity of the link without building up queues which would hurt other traffic.<br/>
+ * The queuing delay is the measured delay minus the base delay: the lowest delay in the last
+ * {@link #BASE_DELAY_HISTORY} minutes, which approximates the delay of the link without any queues.<br/>
+ * The timestamps are 32-bit microseconds which wrap around, so all comparisons are done on the difference.
+ */
+public class LedbatController {
+	
+	/**
+	 * The queuing delay in microseconds which LEDBAT aims for
+	 */
+	public static final int TARGET_DELAY = 100_000;
+	
+	/**
+	 * The maximum amount of bytes the window grows per round trip
+	 */
+	private static final int MAX_WINDOW_INCREASE = 3000;
+	
+	/**
+	 * The smallest window, enough to keep a single small packet in flight
+	 */
+	public static final int MIN_WINDOW = 150;
+	
+	/**
+	 * The amount of minutes of which the lowest delay is remembered
+	 */
+	private static final int BASE_DELAY_HISTORY = 2;
+	
+	/**
+	 * The time in milliseconds which is covered by a single entry of the base delay history
+	 */
+	private static final long BASE_DELAY_INTERVAL = 60_000;
+	
+	/**
+	 * The time in milliseconds after which a window which didn't limit the sending may no longer grow
+	 */
+	private static final long WINDOW_FULL_TIMEOUT = 1000;
+	
+	/**
+	 * The lowest delay for each of the last minutes, the current minute is at {@link #baseDelayIndex}
+	 */
+	private long[] baseDelays;
+	
+	private int baseDelayIndex;
+	
+	/**
+	 * The time at which the current base delay minute started
+	 */
+	private long baseDelayMinuteStart;
+	
+	/**
+	 * The last measured one-way delay in microseconds
+	 */
+	private long currentDelay;
+	
+	/**
+	 * Remembers if any delay has been measured yet
+	 */
+	private boolean hasDelay;
+	
+	/**
+	 * The maximum amount of bytes which may be in flight
+	 */
+	private double maxWindow;
+	
+	/**
+	 * The last time the window prevented a packet from being sent
+	 */
+	private long lastWindowFull;
+	
+	public LedbatController() {
+		baseDelays = new long[BASE_DELAY_HISTORY];
+		baseDelayMinuteStart = System.currentTimeMillis();
+		maxWindow = MIN_WINDOW;
+	}
+	
+	/**
+	 * Adds a one-way delay measurement as reported by the peer
+	 * @param delay The timestamp difference in microseconds, 0 means the peer has no measurement yet
+	 */
+	public void addDelaySample(long delay) {
+		if (delay == 0) {
+			return;
+		}
+		
+		currentDelay = delay;
+		long now = System.currentTimeMillis();
+		
+		if (!hasDelay) {
+			Arrays.fill(baseDelays, delay);
+			hasDelay = true;
+			baseDelayMinuteStart = now;
+			return;
+		}
+		
+		if (now - baseDelayMinuteStart >= BASE_DELAY_INTERVAL) {
+			// Forget the oldest minute so that a changed route or clock drift doesn't keep an outdated base delay
+			baseDelayIndex = (baseDelayIndex + 1) % baseDelays.length;
+			baseDelays[baseDelayIndex] = delay;
+			baseDelayMinuteStart = now;
+		} else if (isBefore(delay, baseDelays[baseDelayIndex])) {
+			baseDelays[baseDelayIndex] = delay;
+		}
+	}
+	
+	/**
+	 * Gets the lowest delay in the history
+	 * @return The base delay in microseconds
+	 */
+	public long getBaseDelay() {
+		long baseDelay = baseDelays[0];
+		for (int i = 1; i < baseDelays.length; i++) {
+			if (isBefore(baseDelays[i], baseDelay)) {
+				baseDelay = baseDelays[i];
+			}
+		}
+		return baseDelay;
+	}
+	
+	/**
+	 * Gets the delay which is caused by queues on the path to the peer
+	 * @return The queuing delay in microseconds
+	 */
+	public long getQueuingDelay() {
+		if (!hasDelay) {
+			return 0;
+		}
+		
+		return (currentDelay - getBaseDelay()) & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Adjusts the window for acknowledged bytes
+	 * @param bytesAcked The amount of bytes which got acknowledged
+	 */
+	public void onAcknowledged(int bytesAcked) {
+		if (!hasDelay) {
+			return;
+		}
+		
+		double offTarget = (TARGET_DELAY - (double) Math.min(getQueuingDelay(), Integer.MAX_VALUE)) / TARGET_DELAY;
+		double windowFactor = Math.min(bytesAcked, maxWindow) / Math.max(bytesAcked, maxWindow);
+		double gain = MAX_WINDOW_INCREASE * offTarget * windowFactor;
+		
+		if (gain > 0 && System.currentTimeMillis() - lastWindowFull > WINDOW_FULL_TIMEOUT) {
+			// The window isn't what limits the sending, growing it would only allow a large burst later on
+			return;
+		}
+		
+		maxWindow = Math.max(MIN_WINDOW, maxWindow + gain);
+	}
+	
+	/**
+	 * Notifies the controller that a packet had to wait because the window is full
+	 */
+	public void onWindowFull() {
+		lastWindowFull = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Halves the window after a packet got lost
+	 */
+	public void onPacketLoss() {
+		maxWindow = Math.max(MIN_WINDOW, maxWindow / 2);
+	}
+	
+	/**
+	 * Resets the window after no packet got acknowledged within the timeout
+	 */
+	public void onTimeout() {
+		maxWindow = MIN_WINDOW;
+	}
+	
+	/**
+	 * Gets the maximum amount of bytes which may be in flight
+	 * @return The window in bytes
+	 */
+	public int getWindow() {
+		return (int) maxWindow;
+	}
+	
+	/**
+	 * Compares two wrapping 32-bit microsecond timestamps
+	 * @return true if a is before b
+	 */
+	private static boolean isBefore(long a, long b) {
+		return (int) (a - b) < 0;
+	}
+
+}
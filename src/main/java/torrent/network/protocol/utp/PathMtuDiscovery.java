@@ -0,0 +1,251 @@
+package torrent.network.protocol.utp;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+
+/**
+ * Discovers the largest packet which reaches the peer without being dropped.<br/>
+ * The search is a binary search between a floor which is known to work and a ceiling which is the MTU of the interface
+ * the packets leave on. Every so often a single data packet is created at the size in the middle, a probe. If it gets
+ * acknowledged the floor is raised to its size, if it gets lost the ceiling is lowered below it. All other packets use
+ * the floor and the socket resends the data of a lost probe in packets of the floor, so a size which doesn't fit the
+ * path can't block the connection.<br/>
+ * The search ends once floor and ceiling are close together and restarts after {@link #REPROBE_INTERVAL} as the path
+ * may have changed. When packets keep timing out the floor is dropped back to the minimum as the path got smaller.
+ */
+public class PathMtuDiscovery {
+	
+	/**
+	 * The size of the uTP header without extensions
+	 */
+	public static final int HEADER_SIZE = 20;
+	
+	/**
+	 * The size of the UDP header
+	 */
+	private static final int UDP_HEADER_SIZE = 8;
+	
+	/**
+	 * The MTU which every IPv4 host must accept
+	 */
+	private static final int MIN_IPV4_MTU = 576;
+	
+	/**
+	 * The MTU which every IPv6 link must support
+	 */
+	private static final int MIN_IPV6_MTU = 1280;
+	
+	/**
+	 * The MTU which is assumed when the interface can't be determined
+	 */
+	private static final int DEFAULT_MTU = 1500;
+	
+	/**
+	 * The largest MTU of which the packet still fits in a UDP datagram
+	 */
+	private static final int MAX_MTU = 65535;
+	
+	/**
+	 * The search ends when floor and ceiling are less than this apart
+	 */
+	private static final int SEARCH_GRANULARITY = 16;
+	
+	/**
+	 * The time in milliseconds after which a finished search starts again
+	 */
+	private static final long REPROBE_INTERVAL = 10 * 60 * 1000;
+	
+	/**
+	 * The amount of timeouts in a row after which the discovered MTU is no longer trusted
+	 */
+	private static final int TIMEOUTS_BEFORE_RESET = 2;
+	
+	/**
+	 * The size of the IP header on this path
+	 */
+	private final int ipHeaderSize;
+	
+	/**
+	 * The MTU which is always safe to use
+	 */
+	private final int minMtu;
+	
+	/**
+	 * The MTU of the interface, the upper limit of the search
+	 */
+	private final int interfaceMtu;
+	
+	/**
+	 * The largest MTU which has been confirmed to work
+	 */
+	private int floor;
+	
+	/**
+	 * The largest MTU which may still work
+	 */
+	private int ceiling;
+	
+	/**
+	 * The MTU of the probe which has been handed out or 0 if there is none
+	 */
+	private int probeMtu;
+	
+	/**
+	 * The time at which the last search ended
+	 */
+	private long searchEnd;
+	
+	/**
+	 * The amount of timeouts since the last acknowledged packet
+	 */
+	private int timeouts;
+	
+	/**
+	 * Creates the discovery for an IPv4 path of which the interface is not yet known
+	 */
+	public PathMtuDiscovery() {
+		this(false, DEFAULT_MTU);
+	}
+	
+	/**
+	 * Creates the discovery for a path to the given address
+	 * @param address The address of the peer
+	 */
+	public PathMtuDiscovery(InetSocketAddress address) {
+		this(address.getAddress() instanceof Inet6Address, getInterfaceMtu(address));
+	}
+	
+	private PathMtuDiscovery(boolean ipv6, int interfaceMtu) {
+		ipHeaderSize = ipv6 ? 40 : 20;
+		minMtu = ipv6 ? MIN_IPV6_MTU : MIN_IPV4_MTU;
+		this.interfaceMtu = Math.min(MAX_MTU, Math.max(minMtu, interfaceMtu));
+		floor = minMtu;
+		ceiling = this.interfaceMtu;
+	}
+	
+	/**
+	 * Gets the size of the payload of the data packets which aren't a probe
+	 * @return The size in bytes
+	 */
+	public int getPayloadSize() {
+		return toPacketSize(floor) - HEADER_SIZE;
+	}
+	
+	/**
+	 * Gets the size of the payload of a probe
+	 * @return The size in bytes or 0 if no probe may be sent right now
+	 */
+	public int getProbePayloadSize() {
+		if(canProbe()) {
+			return toPacketSize((floor + ceiling + 1) / 2) - HEADER_SIZE;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Notifies the discovery that a data packet has been made larger than the floor, no other probe will be handed out
+	 * until this one has been acknowledged or lost
+	 * @param packetSize The size of the uTP packet including the header
+	 */
+	public void onProbeCreated(int packetSize) {
+		probeMtu = packetSize + UDP_HEADER_SIZE + ipHeaderSize;
+	}
+	
+	/**
+	 * Notifies the discovery that the probe arrived at the peer
+	 */
+	public void onProbeAcknowledged() {
+		floor = Math.min(ceiling, Math.max(floor, probeMtu));
+		endProbe();
+	}
+	
+	/**
+	 * Notifies the discovery that the probe didn't reach the peer
+	 */
+	public void onProbeLost() {
+		ceiling = Math.max(floor, probeMtu - 1);
+		endProbe();
+	}
+	
+	/**
+	 * Notifies the discovery that a packet arrived at the peer
+	 */
+	public void onAcknowledged() {
+		timeouts = 0;
+	}
+	
+	/**
+	 * Notifies the discovery that nothing got acknowledged within the timeout
+	 */
+	public void onTimeout() {
+		if(++timeouts >= TIMEOUTS_BEFORE_RESET && floor > minMtu) {
+			//The path may have become smaller, only the minimum is known to work
+			floor = minMtu;
+			ceiling = interfaceMtu;
+			timeouts = 0;
+		}
+	}
+	
+	/**
+	 * Gets the largest MTU which has been confirmed to work
+	 * @return The MTU in bytes
+	 */
+	public int getMtu() {
+		return floor;
+	}
+	
+	private void endProbe() {
+		probeMtu = 0;
+		if(isSearchDone()) {
+			searchEnd = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Checks if a probe may be sent right now, restarts the search if the last one ended long enough ago
+	 */
+	private boolean canProbe() {
+		if(probeMtu != 0) {
+			return false;
+		}
+		
+		if(isSearchDone()) {
+			if(floor >= interfaceMtu || System.currentTimeMillis() - searchEnd < REPROBE_INTERVAL) {
+				return false;
+			}
+			ceiling = interfaceMtu;
+		}
+		return true;
+	}
+	
+	private boolean isSearchDone() {
+		return ceiling - floor < SEARCH_GRANULARITY;
+	}
+	
+	private int toPacketSize(int mtu) {
+		return mtu - ipHeaderSize - UDP_HEADER_SIZE;
+	}
+	
+	/**
+	 * Gets the MTU of the interface on which packets to the address leave
+	 * @param address The address of the peer
+	 * @return The MTU or {@link #DEFAULT_MTU} if it can't be determined
+	 */
+	private static int getInterfaceMtu(InetSocketAddress address) {
+		//Connecting a datagram socket sends nothing, it only lets the system pick the route
+		try (DatagramSocket socket = new DatagramSocket()) {
+			socket.connect(address);
+			NetworkInterface networkInterface = NetworkInterface.getByInetAddress(socket.getLocalAddress());
+			if(networkInterface != null && networkInterface.getMTU() > 0) {
+				return networkInterface.getMTU();
+			}
+		} catch (IOException e) {
+			//Fall back to the default
+		}
+		return DEFAULT_MTU;
+	}
+
+}
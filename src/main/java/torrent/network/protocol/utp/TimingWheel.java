@@ -0,0 +1,209 @@
+package torrent.network.protocol.utp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.johnnei.utils.ConsoleLogger;
+
+/**
+ * A hashed timing wheel which runs tasks at their deadline.<br/>
+ * The wheel is a ring of {@link #WHEEL_SIZE} buckets of which each covers a {@link #TICK_DURATION} of one millisecond.
+ * A timer is stored in the bucket of its deadline modulo the ring size, so scheduling and cancelling is a constant
+ * time list operation. Each tick only visits the bucket of that tick, timers which are due in a later round of the
+ * ring stay in the bucket until their round comes.<br/>
+ * The tasks are run on the thread of the wheel and should therefore be short.
+ */
+public class TimingWheel extends Thread {
+	
+	/**
+	 * The amount of buckets in the ring, must be a power of two
+	 */
+	private static final int WHEEL_SIZE = 512;
+	
+	/**
+	 * The time in nanoseconds which is covered by a single bucket
+	 */
+	private static final long TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final Object WHEEL_LOCK = new Object();
+	
+	private final Logger log;
+	
+	/**
+	 * The first timer of each bucket
+	 */
+	private Timer[] buckets;
+	
+	/**
+	 * The {@link System#nanoTime()} at which tick 0 started
+	 */
+	private long startTime;
+	
+	/**
+	 * The last tick of which the bucket has been processed
+	 */
+	private long processedTick;
+	
+	/**
+	 * The amount of scheduled timers
+	 */
+	private int scheduledTimers;
+	
+	public TimingWheel() {
+		super("uTP Timing Wheel");
+		setDaemon(true);
+		log = ConsoleLogger.createLogger("uTP Timing Wheel", Level.INFO);
+		buckets = new Timer[WHEEL_SIZE];
+		startTime = System.nanoTime();
+	}
+	
+	/**
+	 * Creates a timer which isn't scheduled yet
+	 * @param task The task to run when the timer expires
+	 * @return The timer
+	 */
+	public Timer newTimer(Runnable task) {
+		return new Timer(task);
+	}
+	
+	/**
+	 * Schedules the timer, replacing its previous deadline if it was already scheduled
+	 * @param timer The timer to schedule
+	 * @param delay The time in milliseconds after which the timer expires
+	 */
+	public void schedule(Timer timer, long delay) {
+		synchronized (WHEEL_LOCK) {
+			unlink(timer);
+			//Rounded up so the timer never expires early, a deadline in an already processed tick would only be seen after a full round
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+			timer.deadline = Math.max(getTick(deadline + TICK_DURATION - 1), processedTick + 1);
+			int bucket = (int) (timer.deadline & (WHEEL_SIZE - 1));
+			timer.bucket = bucket;
+			timer.next = buckets[bucket];
+			if(timer.next != null) {
+				timer.next.previous = timer;
+			}
+			buckets[bucket] = timer;
+			if(scheduledTimers++ == 0) {
+				WHEEL_LOCK.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Cancels the timer, does nothing if the timer isn't scheduled
+	 * @param timer The timer to cancel
+	 */
+	public void cancel(Timer timer) {
+		synchronized (WHEEL_LOCK) {
+			unlink(timer);
+		}
+	}
+	
+	private void unlink(Timer timer) {
+		if(timer.bucket == -1) {
+			return;
+		}
+		
+		if(timer.previous == null) {
+			buckets[timer.bucket] = timer.next;
+		} else {
+			timer.previous.next = timer.next;
+		}
+		if(timer.next != null) {
+			timer.next.previous = timer.previous;
+		}
+		timer.previous = null;
+		timer.next = null;
+		timer.bucket = -1;
+		--scheduledTimers;
+	}
+	
+	private long getTick(long nanoTime) {
+		return (nanoTime - startTime) / TICK_DURATION;
+	}
+	
+	@Override
+	public void run() {
+		List<Timer> expiredTimers = new ArrayList<>();
+		while(true) {
+			synchronized (WHEEL_LOCK) {
+				while(scheduledTimers == 0) {
+					try {
+						WHEEL_LOCK.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			
+			//Sleep until the start of the next tick
+			long nextTick = startTime + (processedTick + 1) * TICK_DURATION;
+			long sleepTime = nextTick - System.nanoTime();
+			if(sleepTime > 0) {
+				LockSupport.parkNanos(sleepTime);
+				continue;
+			}
+			
+			synchronized (WHEEL_LOCK) {
+				long currentTick = getTick(System.nanoTime());
+				//After a long pause every bucket is visited once, comparing to the current tick catches up on all of them
+				for(long tick = Math.max(processedTick + 1, currentTick - WHEEL_SIZE + 1); tick <= currentTick; tick++) {
+					Timer timer = buckets[(int) (tick & (WHEEL_SIZE - 1))];
+					while(timer != null) {
+						Timer next = timer.next;
+						if(timer.deadline <= currentTick) {
+							unlink(timer);
+							expiredTimers.add(timer);
+						}
+						timer = next;
+					}
+				}
+				processedTick = currentTick;
+			}
+			
+			//The tasks run without the lock so they can schedule their timer again
+			for(Timer timer : expiredTimers) {
+				try {
+					timer.task.run();
+				} catch (RuntimeException e) {
+					log.warning(String.format("Timer task failed: %s", e.getMessage()));
+				}
+			}
+			expiredTimers.clear();
+		}
+	}
+	
+	/**
+	 * A task which can be scheduled on the wheel, at most once at a time
+	 */
+	public static class Timer {
+		
+		private final Runnable task;
+		
+		/**
+		 * The tick at which the timer expires
+		 */
+		private long deadline;
+		
+		/**
+		 * The bucket which holds the timer or -1 if it isn't scheduled
+		 */
+		private int bucket;
+		
+		private Timer previous;
+		
+		private Timer next;
+		
+		private Timer(Runnable task) {
+			this.task = task;
+			bucket = -1;
+		}
+		
+	}
+
+}
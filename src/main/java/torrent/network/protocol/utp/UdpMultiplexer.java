@@ -1,9 +1,10 @@
 package torrent.network.protocol.utp;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.util.Iterator;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,7 +14,6 @@ import org.johnnei.utils.config.Config;
 import torrent.network.Stream;
 import torrent.network.protocol.UtpSocket;
 import torrent.network.protocol.utp.packet.Packet;
-import torrent.util.tree.BinarySearchTree;
 
 public class UdpMultiplexer extends Thread {
 
@@ -23,7 +23,17 @@ public class UdpMultiplexer extends Thread {
 		return instance;
 	}
 	
-	private final Object BST_LOCK = new Object();
+	/**
+	 * The largest datagram which can be received
+	 */
+	private static final int MAX_DATAGRAM_SIZE = 65536;
+	
+	/**
+	 * The size of the uTP header without extensions
+	 */
+	private static final int HEADER_SIZE = 20;
+	
+	private final Object SOCKETS_LOCK = new Object();
 	/**
 	 * The Factory to create the packet instances<br/>
 	 * If JavaTorrent will need to update the protocol then we can use multiple factory's to create the correct version of the packet
@@ -32,19 +42,25 @@ public class UdpMultiplexer extends Thread {
 	/**
 	 * The socket on which the udp packet will be received and send
 	 */
-	private DatagramSocket multiplexerSocket;
+	private DatagramChannel multiplexerChannel;
 	/**
 	 * All {@link UtpSocket}s which have registered to listen for packets
 	 */
-	private BinarySearchTree<UtpSocket> utpSockets;
+	private UtpSocketTable utpSockets;
+	/**
+	 * The timers of the {@link UtpSocket}s
+	 */
+	private TimingWheel timingWheel;
 	
 	private UdpMultiplexer() {
 		super("UdpMultiplexer");
-		utpSockets = new BinarySearchTree<>();
+		utpSockets = new UtpSocketTable();
 		packetFactory = new UtpPacketFactory();
 		try {
-			multiplexerSocket = new DatagramSocket(Config.getConfig().getInt("download-port"));
-			new UtpSocketTimeout().start();
+			multiplexerChannel = DatagramChannel.open();
+			multiplexerChannel.socket().bind(new InetSocketAddress(Config.getConfig().getInt("download-port")));
+			timingWheel = new TimingWheel();
+			timingWheel.start();
 			start();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -57,8 +73,8 @@ public class UdpMultiplexer extends Thread {
 	 * @param socket The socket to register
 	 */
 	public void register(UtpSocket socket) {
-		synchronized (BST_LOCK) {
-			utpSockets.add(socket);
+		synchronized (SOCKETS_LOCK) {
+			utpSockets.put(socket);
 		}
 	}
 	
@@ -67,31 +83,26 @@ public class UdpMultiplexer extends Thread {
 	 * @param socket The socket to remove
 	 */
 	public void unregister(UtpSocket socket) {
-		synchronized (BST_LOCK) {
+		synchronized (SOCKETS_LOCK) {
 			utpSockets.remove(socket);
 		}
 	}
 	
-	public void updateTimeout() {
-		Iterator<UtpSocket> i;
-		synchronized (BST_LOCK) {
-			 i = utpSockets.iterator();
-		}
-		while(i.hasNext()) {
-			UtpSocket socket = i.next();
-			socket.checkTimeouts();
-			socket.checkDisconnect();
-		}
+	public TimingWheel getTimingWheel() {
+		return timingWheel;
 	}
 	
 	/**
-	 * Tries to send the UdpPacket
-	 * @param packet The packet to send
+	 * Tries to send the UdpPacket<br/>
+	 * The channel allows concurrent sends, so the sockets don't wait on each other
+	 * @param data The buffer containing the packet
+	 * @param length The length of the packet in the buffer
+	 * @param address The address to send the packet to
 	 * @return If the send call did not throw an exception
 	 */
-	public synchronized boolean send(DatagramPacket packet) {
+	public boolean send(byte[] data, int length, InetSocketAddress address) {
 		try {
-			multiplexerSocket.send(packet);
+			multiplexerChannel.send(ByteBuffer.wrap(data, 0, length), address);
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -103,34 +114,42 @@ public class UdpMultiplexer extends Thread {
 	public void run() {
 		Logger log = ConsoleLogger.createLogger("UDP Multiplexer", Level.INFO);
 		
+		//The buffers are reused for every datagram, the packets copy the payload which they keep
+		byte[] dataBuffer = new byte[MAX_DATAGRAM_SIZE];
+		ByteBuffer receiveBuffer = ByteBuffer.wrap(dataBuffer);
+		Stream inStream = new Stream(dataBuffer);
+		
 		while(true) {
 			try {
-				byte[] dataBuffer = new byte[25600]; //25kB buffer
-				DatagramPacket packet = new DatagramPacket(dataBuffer, dataBuffer.length);
-				multiplexerSocket.receive(packet);
+				receiveBuffer.clear();
+				SocketAddress address = multiplexerChannel.receive(receiveBuffer);
+				int length = receiveBuffer.position();
+				if(length < HEADER_SIZE) {
+					log.fine(String.format("Invalid Packet of %d bytes (%s)", length, address));
+					continue;
+				}
 				//Check if packet is valid
-				int type = dataBuffer[0] >>> 4;
+				int type = (dataBuffer[0] & 0xFF) >>> 4;
 				int version = dataBuffer[0] & 0x7;
 				if(version == Packet.VERSION) {
 					try {
 						Packet utpPacket = packetFactory.getFromId(type);
-						Stream inStream = new Stream(packet.getData(), packet.getOffset(), packet.getLength());
+						inStream.fill(dataBuffer, length);
 						utpPacket.read(inStream);
-						UtpSocket socket = new UtpSocket(utpPacket.getConnectionId());
-						socket = utpSockets.find(socket);
+						UtpSocket socket;
+						synchronized (SOCKETS_LOCK) {
+							socket = utpSockets.get(address, utpPacket.getConnectionId() & 0xFFFF);
+						}
 						if(socket != null) {
 							socket.updateLastInteraction();
 							utpPacket.process(socket);
+							socket.checkDisconnect();
 						}
-					} catch (IllegalArgumentException e) {
-						log.fine(String.format("Invalid Packet of %d bytes with type %d (%s:%d)",
-							packet.getLength(), type, packet.getAddress(), packet.getPort())
-						);
+					} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+						log.fine(String.format("Invalid Packet of %d bytes with type %d (%s)", length, type, address));
 					}
 				} else {
-					log.fine(String.format("Invalid Packet of %d bytes with version %d (%s:%d)",
-						packet.getLength(), version, packet.getAddress(), packet.getPort())
-					);
+					log.fine(String.format("Invalid Packet of %d bytes with version %d (%s)", length, version, address));
 				}
 			} catch (IOException e) {
 				
@@ -8,13 +8,8 @@ public class UtpClient {
 	private short connectionId;
 	
 	/**
-	 * The base delay<Br/>
-	 * This is used as a correction so we can measure extra delay
-	 */
-	private long baseDelay;
-	
-	/**
-	 * The delay corrected with {@link #baseDelay}
+	 * The difference between the receive time and the send timestamp of the last packet in microseconds<br/>
+	 * The clocks are not synchronized so this is only meaningful compared to other measurements
 	 */
 	private long delay;
 	/**
@@ -24,7 +19,6 @@ public class UtpClient {
 	private long windowSize;
 	
 	public UtpClient() {
-		baseDelay = Long.MAX_VALUE;
 		windowSize = 150;
 	}
 
@@ -36,19 +30,12 @@ public class UtpClient {
 		return (int)(delay & 0xFFFFFFFF);
 	}
 	
-	public void setDelay(long delay, boolean updateBaseDelay) {
-		if(updateBaseDelay && delay < baseDelay) {
-			baseDelay = delay;
-		}
-		this.delay = delay - baseDelay;
-	}
-
 	/**
-	 * Updates the measured delay and corrects the base delay if needed
+	 * Updates the measured delay
 	 * @param delay The measured delay
 	 */
 	public void setDelay(long delay) {
-		setDelay(delay, true);
+		this.delay = delay;
 	}
 	
 	public void setConnectionId(int connectionId) {
@@ -1,31 +1,60 @@
 package torrent.network.protocol.utp;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 
-import torrent.network.Stream;
 import torrent.network.protocol.utp.packet.PacketData;
 
+/**
+ * The data which has been received on a uTP socket.<br/>
+ * Packets which arrive out of order are held in a ring which is indexed by their sequence number, so both storing a
+ * packet and finding the next one in order takes constant time. Packets which are in order are appended to the readable
+ * data without copying their payload.
+ */
 public class UtpInputStream extends InputStream {
-
+	
+	/**
+	 * The amount of packets after the last in order packet which can be held, must be a power of two.<br/>
+	 * This covers the receive window when the packets are of the minimal size used by the congestion control.
+	 */
+	private static final int REORDER_CAPACITY = 1024;
+	
+	/**
+	 * The size of the selective ack bitmask in bytes, which covers the 256 packets after the first missing packet
+	 */
+	private static final int SELECTIVE_ACK_SIZE = 32;
+	
+	private final Object BUFFER_LOCK = new Object();
+	
+	/**
+	 * The payloads which are ready to be read in order
+	 */
+	private ArrayDeque<byte[]> readableData;
+	/**
+	 * The offset in the first payload of {@link #readableData} up to which it has been read
+	 */
+	private int readOffset;
+	/**
+	 * The amount of bytes which are ready to be read
+	 */
+	private int available;
 	/**
-	 * The buffer of unread data
+	 * The packets which arrived out of order, indexed by <code>sequenceNumber & (REORDER_CAPACITY - 1)</code>
 	 */
-	private Stream buffer;
+	private PacketData[] reorderBuffer;
 	/**
-	 * The queue of data which has arrived in the wrong order
+	 * The amount of packets in the {@link #reorderBuffer}
 	 */
-	private ArrayList<PacketData> dataQueue;
+	private int reorderedPackets;
 	/**
-	 * The last sequence number which was added to the {@link #buffer}
+	 * The last sequence number which was added to the {@link #readableData}
 	 */
 	private int lastSequenceNumber;
 	private boolean isFirstPacket;
 	
 	public UtpInputStream() {
-		buffer = new Stream(5120); //5kB buffer
-		dataQueue = new ArrayList<>();
+		readableData = new ArrayDeque<>();
+		reorderBuffer = new PacketData[REORDER_CAPACITY];
 		lastSequenceNumber = 1;
 		isFirstPacket = true;
 	}
@@ -35,63 +64,153 @@ public class UtpInputStream extends InputStream {
 	 * @param packet
 	 */
 	public void receiveData(PacketData packet) {
-		System.err.println("XXXXX| Received Data SeqNr: " + packet.getSequenceNumber() + " (" + packet.getSize() + " bytes)");
-		if(isFirstPacket) {
-			lastSequenceNumber = packet.getSequenceNumber() - 1;
-			isFirstPacket = false;
-		}
-		if(packet.getSequenceNumber() == (lastSequenceNumber + 1)) {
-			//This packet is the next in-chain
-			System.out.println("Data is in sequence");
-			byte[] data = packet.getData();
-			if(buffer.writeableSpace() >= data.length) {
-				buffer.writeByte(data);
-			} else {
-				buffer.refit();
-				if(buffer.writeableSpace() >= data.length) {
-					buffer.writeByte(data);
-				} else {
-					buffer.expand(data.length - buffer.writeableSpace());
-					buffer.writeByte(data);
+		synchronized (BUFFER_LOCK) {
+			int sequenceNumber = packet.getSequenceNumber() & 0xFFFF;
+			if(isFirstPacket) {
+				lastSequenceNumber = (sequenceNumber - 1) & 0xFFFF;
+				isFirstPacket = false;
+			}
+			
+			int distance = (sequenceNumber - lastSequenceNumber) & 0xFFFF;
+			if(distance == 0 || distance > REORDER_CAPACITY) {
+				//Either a duplicate which has already been received or too far ahead, the peer will resend it
+				return;
+			}
+			
+			if(distance > 1) {
+				int index = sequenceNumber & (REORDER_CAPACITY - 1);
+				if(reorderBuffer[index] == null) {
+					reorderBuffer[index] = packet;
+					++reorderedPackets;
 				}
+				return;
 			}
-			lastSequenceNumber = packet.getSequenceNumber();
-			//Check if the queue contains more packet after this one
-			if(dataQueue.size() > 0) {
-				for(int i = 0; i < dataQueue.size(); i++) {
-					PacketData dataPacket = dataQueue.get(i);
-					if(dataPacket.getSequenceNumber() == (lastSequenceNumber + 1)) {
-						dataQueue.remove(i);
-						receiveData(packet);
-						return;
-					}
+			
+			append(packet);
+			//Deliver the run of packets which was waiting on this one
+			while(reorderedPackets > 0) {
+				int index = (lastSequenceNumber + 1) & (REORDER_CAPACITY - 1);
+				PacketData next = reorderBuffer[index];
+				if(next == null) {
+					break;
 				}
+				reorderBuffer[index] = null;
+				--reorderedPackets;
+				append(next);
 			}
-		} else {
-			System.out.println("Missing a packet");
-			dataQueue.add(packet);
 		}
 	}
-
+	
+	/**
+	 * Makes the data of the next packet in order readable
+	 * @param packet The packet which directly follows {@link #lastSequenceNumber}
+	 */
+	private void append(PacketData packet) {
+		byte[] data = packet.getData();
+		if(data.length > 0) {
+			readableData.addLast(data);
+			available += data.length;
+		}
+		lastSequenceNumber = packet.getSequenceNumber() & 0xFFFF;
+	}
+	
+	/**
+	 * Builds the selective ack bitmask of the packets which arrived out of order
+	 * @return The bitmask relative to {@link #getLastSequenceNumber()} or <code>null</code> if all packets arrived in order
+	 */
+	public byte[] getSelectiveAck() {
+		synchronized (BUFFER_LOCK) {
+			if(reorderedPackets == 0) {
+				return null;
+			}
+			
+			byte[] bitmask = new byte[SELECTIVE_ACK_SIZE];
+			for(int bit = 0; bit < bitmask.length * 8; bit++) {
+				//The packet directly after the last sequence number is missing by definition, so bit 0 is the one after that
+				if(reorderBuffer[(lastSequenceNumber + 2 + bit) & (REORDER_CAPACITY - 1)] != null) {
+					bitmask[bit / 8] |= 1 << (bit % 8);
+				}
+			}
+			return bitmask;
+		}
+	}
+	
+	/**
+	 * Gets the last sequence number up to which all packets have been received
+	 * @return The sequence number
+	 */
+	public int getLastSequenceNumber() {
+		synchronized (BUFFER_LOCK) {
+			return lastSequenceNumber;
+		}
+	}
+	
 	@Override
-	public int read() throws IOException {
-		if(buffer.available() > 0) {
-			return buffer.readByte() & 0xFF;
-		} else
-			return -1;
+	public int read() {
+		synchronized (BUFFER_LOCK) {
+			if(available == 0) {
+				return -1;
+			}
+			
+			byte[] data = readableData.peekFirst();
+			int b = data[readOffset++] & 0xFF;
+			consumed(data, 1);
+			return b;
+		}
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		synchronized (BUFFER_LOCK) {
+			if(len == 0) {
+				return 0;
+			}
+			if(available == 0) {
+				return -1;
+			}
+			
+			int read = 0;
+			while(read < len && available > 0) {
+				byte[] data = readableData.peekFirst();
+				int length = Math.min(len - read, data.length - readOffset);
+				System.arraycopy(data, readOffset, b, off + read, length);
+				readOffset += length;
+				read += length;
+				consumed(data, length);
+			}
+			return read;
+		}
+	}
+	
+	/**
+	 * Removes the first payload once it has been read completely
+	 * @param data The first payload
+	 * @param length The amount of bytes which have been read from it
+	 */
+	private void consumed(byte[] data, int length) {
+		available -= length;
+		if(readOffset == data.length) {
+			readableData.pollFirst();
+			readOffset = 0;
+		}
 	}
 	
 	@Override
 	public int available() {
-		return buffer.available();
+		synchronized (BUFFER_LOCK) {
+			return available;
+		}
 	}
-
+	
 	/**
-	 * Sets the first sequence number
+	 * Sets the sequence number of the packet before the first data packet
 	 * @param sequenceNumber
 	 */
 	public void setSequenceNumber(int sequenceNumber) {
-		lastSequenceNumber = sequenceNumber;
+		synchronized (BUFFER_LOCK) {
+			lastSequenceNumber = sequenceNumber & 0xFFFF;
+			isFirstPacket = false;
+		}
 	}
 
 }
@@ -16,17 +16,16 @@ public class UtpOutputStream extends OutputStream {
 	
 	public UtpOutputStream(UtpSocket socket) {
 		this.socket = socket;
-		buffer = new Stream(socket.getPacketSize());
+		//The packet size is only known once the socket is connected, the buffer is sized on the first write
+		buffer = new Stream(0);
 	}
 	
 	@Override
 	public void write(int i) {
-		if(buffer.writeableSpace() > 0) {
-			buffer.writeByte(i);
-		} else {
+		if(buffer.writeableSpace() == 0) {
 			flush();
-			write(i); //We don't want to lose this byte
 		}
+		buffer.writeByte(i);
 	}
 	
 	@Override
@@ -36,15 +35,21 @@ public class UtpOutputStream extends OutputStream {
 		}
 	}
 	
+	/**
+	 * Sends the data directly in packets of the current packet size, after the buffered data
+	 */
 	@Override
 	public void write(byte[] array, int offset, int length) {
+		flush();
+		sendPackets(array, offset, length);
+	}
+	
+	private void sendPackets(byte[] array, int offset, int length) {
 		int bytesSend = 0;
 		while(bytesSend != length) {
-			int size = Math.min(socket.getPacketSize(), length - bytesSend);
-			byte[] data = new byte[size];
-			System.arraycopy(array, offset + bytesSend, data, 0, size);
-			socket.sendPacket(new PacketData(data));
-			bytesSend += size;
+			PacketData packet = socket.createDataPacket(array, offset + bytesSend, length - bytesSend);
+			socket.sendPacket(packet);
+			bytesSend += packet.getData().length;
 		}
 	}
 	
@@ -54,10 +59,10 @@ public class UtpOutputStream extends OutputStream {
 	@Override
 	public void flush() {
 		if(buffer.getWritePointer() > 0) {
-			byte[] data = buffer.getBuffer();
-			write(data, 0, buffer.getWritePointer());
-			buffer.reset(socket.getPacketSize());
+			sendPackets(buffer.getBuffer(), 0, buffer.getWritePointer());
 		}
+		//Follow the packet size as it changes with the MTU and the congestion window
+		buffer.reset(socket.getPacketSize());
 	}
 
 }
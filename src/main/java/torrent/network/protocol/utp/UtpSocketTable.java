@@ -0,0 +1,123 @@
+package torrent.network.protocol.utp;
+
+import java.net.SocketAddress;
+
+import torrent.network.protocol.UtpSocket;
+
+/**
+ * An open addressing hash table of the {@link UtpSocket}s keyed by their remote address and connection id.<br/>
+ * The slots are probed linearly and removals shift the following entries back instead of leaving markers, so a lookup
+ * only touches the array and never allocates.<br/>
+ * This class is not thread-safe, the {@link UdpMultiplexer} guards it.
+ */
+class UtpSocketTable {
+
+	static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The slots of the table, the length is always a power of two
+	 */
+	private UtpSocket[] sockets;
+
+	private int size;
+
+	public UtpSocketTable() {
+		sockets = new UtpSocket[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Finds the socket which receives the packets with the given connection id from the given address
+	 * @param address The address from which the packet has been received
+	 * @param connectionId The connection id in the packet header
+	 * @return The socket or <code>null</code> if none is registered
+	 */
+	public UtpSocket get(SocketAddress address, int connectionId) {
+		int mask = sockets.length - 1;
+		for(int slot = hash(address, connectionId) & mask; sockets[slot] != null; slot = (slot + 1) & mask) {
+			if(matches(sockets[slot], address, connectionId)) {
+				return sockets[slot];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the socket, replacing a socket with the same address and connection id
+	 * @param socket The socket to add
+	 */
+	public void put(UtpSocket socket) {
+		if((size + 1) * 2 > sockets.length) {
+			resize(sockets.length * 2);
+		}
+
+		int connectionId = getConnectionId(socket);
+		int mask = sockets.length - 1;
+		int slot = hash(socket.getSocketAddress(), connectionId) & mask;
+		while(sockets[slot] != null) {
+			if(matches(sockets[slot], socket.getSocketAddress(), connectionId)) {
+				sockets[slot] = socket;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		sockets[slot] = socket;
+		++size;
+	}
+
+	/**
+	 * Removes the socket
+	 * @param socket The socket to remove
+	 */
+	public void remove(UtpSocket socket) {
+		int mask = sockets.length - 1;
+		int slot = hash(socket.getSocketAddress(), getConnectionId(socket)) & mask;
+		while(sockets[slot] != socket) {
+			if(sockets[slot] == null) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		sockets[slot] = null;
+		--size;
+
+		//Move the following entries of the probe sequence back so that they can still be found
+		int next = (slot + 1) & mask;
+		while(sockets[next] != null) {
+			int home = hash(sockets[next].getSocketAddress(), getConnectionId(sockets[next])) & mask;
+			//The entry can fill the gap if its home slot is not between the gap and itself
+			if(((next - home) & mask) >= ((next - slot) & mask)) {
+				sockets[slot] = sockets[next];
+				sockets[next] = null;
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	private void resize(int capacity) {
+		UtpSocket[] oldSockets = sockets;
+		sockets = new UtpSocket[capacity];
+		size = 0;
+		for(UtpSocket socket : oldSockets) {
+			if(socket != null) {
+				put(socket);
+			}
+		}
+	}
+
+	private static int getConnectionId(UtpSocket socket) {
+		return socket.getPeerClient().getConnectionId() & 0xFFFF;
+	}
+
+	private static boolean matches(UtpSocket socket, SocketAddress address, int connectionId) {
+		return getConnectionId(socket) == connectionId && address.equals(socket.getSocketAddress());
+	}
+
+	static int hash(SocketAddress address, int connectionId) {
+		int hash = address.hashCode() * 31 + connectionId;
+		//Spread the high bits as the mask only keeps the low bits
+		return hash ^ (hash >>> 16);
+	}
+
+}
@@ -15,6 +15,11 @@ public abstract class Packet implements Comparable<Packet> {
 	protected int sequenceNumber;
 	protected int acknowledgeNumber;
 	protected int timesSent;
+	/**
+	 * The selective ack bitmask or <code>null</code> if the packet doesn't carry one<br/>
+	 * Bit <i>i</i> acknowledges the packet with sequence number <code>acknowledgeNumber + 2 + i</code>
+	 */
+	protected byte[] selectiveAck;
 	
 	public Packet() {
 		sequenceNumber = -1;
@@ -36,7 +41,7 @@ public abstract class Packet implements Comparable<Packet> {
 	public void write(Stream outStream) {
 		//Write Header
 		outStream.writeByte(getId() << 4 | VERSION);
-		outStream.writeByte(0); //No Extension Support
+		outStream.writeByte(selectiveAck == null ? 0 : UtpProtocol.EXTENSION_SELECTIVE_ACK);
 		outStream.writeShort(socket.getMyClient().getConnectionId());
 		sendTimestamp = UtpProtocol.getMicrotime(); //Set timestamps so we can resend lost packets
 		outStream.writeInt(sendTimestamp); //"Micro"second timestamp
@@ -47,6 +52,11 @@ public abstract class Packet implements Comparable<Packet> {
 			outStream.writeShort(socket.getAcknowledgeNumber());
 		else
 			outStream.writeShort(acknowledgeNumber);
+		if(selectiveAck != null) {
+			outStream.writeByte(0); //No further extensions
+			outStream.writeByte(selectiveAck.length);
+			outStream.writeByte(selectiveAck);
+		}
 		//Write Extra Data if needed
 		writePacket(outStream);
 		++timesSent;
@@ -68,8 +78,11 @@ public abstract class Packet implements Comparable<Packet> {
 		while(extension != 0) {
 			int newExtension = inStream.readByte();
 			int length = inStream.readByte();
-			//TODO Process Extensions
-			inStream.moveBack(-length);
+			byte[] extensionData = inStream.readByteArray(length);
+			if(extension == UtpProtocol.EXTENSION_SELECTIVE_ACK) {
+				selectiveAck = extensionData;
+			}
+			//Unknown extensions are skipped
 			extension = newExtension;
 		}
 		readPacket(inStream);
@@ -114,13 +127,19 @@ public abstract class Packet implements Comparable<Packet> {
 	public void process(UtpSocket socket) {
 		//Process Header
 		socket.getPeerClient().setWindowSize(windowSize);
-		socket.getPeerClient().setDelay(UtpProtocol.getMicrotime() - sendTimestamp, false);
+		// The raw difference gets echoed to the peer which uses it for its own congestion control
+		socket.getPeerClient().setDelay((UtpProtocol.getMicrotime() - sendTimestamp) & 0xFFFFFFFFL);
 		socket.getMyClient().setDelay(delay);
+		socket.getCongestionControl().addDelaySample(delay);
 		//System.out.println("Our Delay: " + delay + ", Translated: " + socket.getMyClient().getDelay() + "us, they send at: " + sendTimestamp);
-		socket.setAcknowledgeNumber(sequenceNumber, needAcknowledgement());
-		socket.acknowledgedPacket(acknowledgeNumber);
+		socket.acknowledgedPacket(acknowledgeNumber, (int) (sendTimestamp - delay), getId() == UtpProtocol.ST_STATE);
+		if(selectiveAck != null) {
+			socket.selectiveAcknowledgedPackets(acknowledgeNumber, selectiveAck);
+		}
 		//Process Packet
 		processPacket(socket);
+		//Acknowledge after processing so the ack reflects the data which has been received in order
+		socket.setAcknowledgeNumber(sequenceNumber, needAcknowledgement(), canDelayAcknowledgement());
 	}
 	
 	public abstract void processPacket(UtpSocket socket);
@@ -133,6 +152,14 @@ public abstract class Packet implements Comparable<Packet> {
 		return false;
 	}
 	
+	/**
+	 * Checks if the ack for this packet may be held back to be combined with later acks
+	 * @return true if the ack may be delayed
+	 */
+	public boolean canDelayAcknowledgement() {
+		return false;
+	}
+	
 	@Override
 	public int compareTo(Packet otherPacket) {
 		return sequenceNumber - otherPacket.sequenceNumber;
@@ -159,4 +186,12 @@ public abstract class Packet implements Comparable<Packet> {
 	public boolean canUseForRTT() {
 		return timesSent == 1;
 	}
+	
+	/**
+	 * Checks if this packet has been sent again after it got lost
+	 * @return true if the packet has been sent more than once
+	 */
+	public boolean isResent() {
+		return timesSent > 1;
+	}
 }
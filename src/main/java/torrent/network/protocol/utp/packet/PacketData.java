@@ -10,6 +10,11 @@ public class PacketData extends Packet {
 	
 	private byte[] data;
 	
+	/**
+	 * If this packet repeats the sequence number of an acknowledged packet instead of taking a new one
+	 */
+	private boolean duplicate;
+	
 	public PacketData() {
 		super();
 		data = new byte[0];
@@ -18,6 +23,19 @@ public class PacketData extends Packet {
 	public PacketData(byte[] data) {
 		this.data = data;
 	}
+	
+	/**
+	 * Creates an empty data packet which repeats the sequence number of a packet which has already been acknowledged<br/>
+	 * The peer drops it as a duplicate but does answer it with an ack, which tells up to which packet everything arrived.
+	 * @param sequenceNumber The sequence number of the acknowledged packet
+	 * @return The packet
+	 */
+	public static PacketData createDuplicate(int sequenceNumber) {
+		PacketData packet = new PacketData();
+		packet.sequenceNumber = sequenceNumber;
+		packet.duplicate = true;
+		return packet;
+	}
 
 	@Override
 	protected void writePacket(Stream outStream) {
@@ -31,7 +49,6 @@ public class PacketData extends Packet {
 
 	@Override
 	public void processPacket(UtpSocket socket) {
-		System.err.println(socket.getMyClient().getConnectionId() + "| WE GOT DATA!");
 		try {
 			UtpInputStream inputStream = (UtpInputStream)socket.getInputStream();
 			inputStream.receiveData(this);
@@ -52,6 +69,11 @@ public class PacketData extends Packet {
 	
 	@Override
 	public boolean needAcknowledgement() {
+		return !duplicate;
+	}
+	
+	@Override
+	public boolean canDelayAcknowledgement() {
 		return true;
 	}
 
@@ -12,6 +12,16 @@ public class PacketState extends Packet {
 	public PacketState(int ackNumber) {
 		this.acknowledgeNumber = ackNumber;
 	}
+	
+	/**
+	 * Creates an ack which also acknowledges the packets which arrived out of order
+	 * @param ackNumber The last packet which has been received in order
+	 * @param selectiveAck The selective ack bitmask or <code>null</code> if all packets arrived in order
+	 */
+	public PacketState(int ackNumber, byte[] selectiveAck) {
+		this(ackNumber);
+		this.selectiveAck = selectiveAck;
+	}
 
 	@Override
 	protected void writePacket(Stream outStream) {
@@ -26,7 +36,8 @@ public class PacketState extends Packet {
 		//System.out.println(socket.getPeerClient().getConnectionId() + "| ACKed " + acknowledgeNumber);
 		if(acknowledgeNumber == 1 && socket.getConnectionState() == ConnectionState.CONNECTING) {
 			socket.setConnectionState(ConnectionState.CONNECTED);
-			socket.setUtpInputNumber(sequenceNumber);
+			//The state carries the sequence number of the first data packet which will be sent by the peer
+			socket.setUtpInputNumber((sequenceNumber - 1) & 0xFFFF);
 		}
 	}
 
@@ -37,6 +48,9 @@ public class PacketState extends Packet {
 
 	@Override
 	public int getSize() {
-		return 20;
+		if(selectiveAck == null) {
+			return 20;
+		}
+		return 22 + selectiveAck.length;
 	}
 }
@@ -27,6 +27,7 @@ public class PacketSyn extends Packet {
 	public void processPacket(UtpSocket socket) {
 		socket.getMyClient().setConnectionId(connectionId);
 		socket.getPeerClient().setConnectionId(connectionId + 1);
+		socket.setUtpInputNumber(sequenceNumber);
 		socket.setSequenceNumber(new Random().nextInt() & 0xFFFF);
 		socket.sendPacket(new PacketSynResponse());
 		socket.setConnectionState(ConnectionState.CONNECTED);
@@ -8,6 +8,11 @@ public class UtpProtocol {
 	public static final int ST_RESET = 3;
 	public static final int ST_SYN = 4;
 	
+	/**
+	 * The header extension which acknowledges the packets which arrived after a missing packet
+	 */
+	public static final int EXTENSION_SELECTIVE_ACK = 1;
+	
 	/**
 	 * Using nanoseconds/1000, The official implementation notes:<br/>
 	 * "This should return monotonically increasing microseconds, start point does not matter"<br/>
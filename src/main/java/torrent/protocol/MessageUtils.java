@@ -1,7 +1,11 @@
 package torrent.protocol;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
 
 import torrent.network.BitTorrentSocket;
 import torrent.network.ByteOutputStream;
@@ -23,61 +27,114 @@ public class MessageUtils {
 
 	private static MessageUtils instance = new MessageUtils();
 
+	/**
+	 * The keep-alive message has no id and no payload so a single instance is shared for all of them
+	 */
+	private static final IMessage KEEP_ALIVE = new MessageKeepAlive();
+
+	/**
+	 * The size of the message table, the extension message has the highest id
+	 */
+	private static final int MESSAGE_TABLE_SIZE = BitTorrent.MESSAGE_EXTENDED_MESSAGE + 1;
+
+	/**
+	 * The factories which create the message for an id, indexed by that id
+	 */
+	private List<Supplier<IMessage>> messageFactories;
+
+	/**
+	 * The ids of which the factory returns a shared instance, those must not be given per-message state
+	 */
+	private BitSet statelessMessages;
+
 	private MessageUtils() {
-		idToMessage = new HashMap<>();
-		registerMessage(new MessageChoke());
-		registerMessage(new MessageUnchoke());
-		registerMessage(new MessageInterested());
-		registerMessage(new MessageUninterested());
-		registerMessage(new MessageHave());
-		registerMessage(new MessageBitfield());
-		registerMessage(new MessageRequest());
-		registerMessage(new MessageBlock());
-		registerMessage(new MessageExtension());
-		registerMessage(new MessageCancel());
+		messageFactories = new ArrayList<>(Collections.nCopies(MESSAGE_TABLE_SIZE, null));
+		statelessMessages = new BitSet(MESSAGE_TABLE_SIZE);
+		registerStatelessMessage(new MessageChoke());
+		registerStatelessMessage(new MessageUnchoke());
+		registerStatelessMessage(new MessageInterested());
+		registerStatelessMessage(new MessageUninterested());
+		registerMessage(BitTorrent.MESSAGE_HAVE, MessageHave::new);
+		registerMessage(BitTorrent.MESSAGE_BITFIELD, MessageBitfield::new);
+		registerMessage(BitTorrent.MESSAGE_REQUEST, MessageRequest::new);
+		registerMessage(BitTorrent.MESSAGE_PIECE, MessageBlock::new);
+		registerMessage(BitTorrent.MESSAGE_EXTENDED_MESSAGE, MessageExtension::new);
+		registerMessage(BitTorrent.MESSAGE_CANCEL, MessageCancel::new);
 	}
 
-	private void registerMessage(IMessage message) {
-		idToMessage.put(message.getId(), message);
+	private void registerMessage(int id, Supplier<IMessage> factory) {
+		messageFactories.set(id, factory);
+	}
+
+	/**
+	 * Registers a message without payload and state, the given instance will be returned for every received message
+	 * with the same id
+	 * 
+	 * @param message The shared instance
+	 */
+	private void registerStatelessMessage(IMessage message) {
+		registerMessage(message.getId(), () -> message);
+		statelessMessages.set(message.getId());
 	}
 
 	public static MessageUtils getUtils() {
 		return instance;
 	}
 
-	private HashMap<Integer, IMessage> idToMessage;
-
 	public IMessage readMessage(BitTorrentSocket socket) throws IOException {
-		InStream stream = socket.getBufferedMessage();
-		int duration = socket.getBufferLifetime();
+		return readMessage(socket.getBufferedMessage(), socket.getBufferLifetime());
+	}
+
+	/**
+	 * Decodes a length prefixed message
+	 * 
+	 * @param stream The stream containing the entire message
+	 * @param duration The duration in milliseconds it took to read the message
+	 * @return The decoded message
+	 * @throws IOException When the message id is unknown
+	 */
+	public IMessage readMessage(InStream stream, int duration) throws IOException {
 		int length = stream.readInt();
 		if (length == 0) {
-			return new MessageKeepAlive();
-		} else {
-			int id = stream.readByte();
-			try {
-				if (!idToMessage.containsKey(id))
-					throw new IOException("Unhandled Message: " + id);
-				IMessage message = idToMessage.get(id).getClass().newInstance();
-				message.setReadDuration(duration);
-				message.read(stream);
-				return message;
-			} catch (IllegalAccessException | InstantiationException ex) {
-				throw new IOException("Message Read Error", ex);
-			}
+			return KEEP_ALIVE;
+		}
+
+		int id = stream.readByte() & 0xFF;
+		Supplier<IMessage> factory = (id < messageFactories.size()) ? messageFactories.get(id) : null;
+		if (factory == null) {
+			throw new IOException("Unhandled Message: " + id);
+		}
+
+		IMessage message = factory.get();
+		if (statelessMessages.get(id)) {
+			// The shared instance is used by all selector threads at once and has no payload to read
+			return message;
 		}
+
+		message.setReadDuration(duration);
+		message.read(stream);
+		return message;
 	}
 
 	public void writeMessage(ByteOutputStream outStream, IMessage message) throws IOException {
 		OutStream outBuffer = new OutStream(message.getLength() + 4);
+		writeMessage(outBuffer, message);
+		outBuffer.writeTo(outStream);
+	}
+	
+	/**
+	 * Appends the length prefixed message to the buffer
+	 * 
+	 * @param outBuffer The buffer to write the message in
+	 * @param message The message to write
+	 */
+	public void writeMessage(OutStream outBuffer, IMessage message) {
 		outBuffer.writeInt(message.getLength());
 		
 		if (message.getLength() > 0) {
 			outBuffer.writeByte(message.getId());
 			message.write(outBuffer);
 		}
-		
-		outStream.write(outBuffer.toByteArray());
 	}
 
 }
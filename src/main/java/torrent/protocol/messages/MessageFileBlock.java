@@ -0,0 +1,100 @@
+package torrent.protocol.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import torrent.download.files.FileRegion;
+import torrent.download.peer.Peer;
+import torrent.network.InStream;
+import torrent.network.OutStream;
+import torrent.protocol.BitTorrent;
+import torrent.protocol.IMessage;
+
+/**
+ * A block message of which the data is still on the disk.<br/>
+ * Sockets which support file transfers will only write the header of this message and let the kernel send the
+ * data directly from the files. Other sockets will read the data into the message while writing.
+ */
+public class MessageFileBlock implements IMessage {
+
+	/**
+	 * The size of the length, id, index and offset fields
+	 */
+	public static final int HEADER_SIZE = 13;
+
+	private int index;
+	private int offset;
+	private int dataLength;
+	private List<FileRegion> regions;
+
+	public MessageFileBlock(int index, int offset, int dataLength, List<FileRegion> regions) {
+		this.index = index;
+		this.offset = offset;
+		this.dataLength = dataLength;
+		this.regions = regions;
+	}
+
+	/**
+	 * Writes the length prefix, id, index and offset of this message
+	 * 
+	 * @param buffer The buffer with at least {@link #HEADER_SIZE} bytes remaining
+	 */
+	public void writeHeader(ByteBuffer buffer) {
+		buffer.putInt(getLength());
+		buffer.put((byte) getId());
+		buffer.putInt(index);
+		buffer.putInt(offset);
+	}
+
+	@Override
+	public void write(OutStream outStream) {
+		outStream.writeInt(index);
+		outStream.writeInt(offset);
+
+		byte[] data = new byte[dataLength];
+		try {
+			int readBytes = 0;
+			for (FileRegion region : regions) {
+				region.getFileInfo().getStorage().read(region.getOffset(), data, readBytes, region.getLength());
+				readBytes += region.getLength();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to read block %d:%d: %s", index, offset, e.getMessage()), e);
+		}
+		outStream.writeByte(data);
+	}
+
+	@Override
+	public void read(InStream inStream) {
+		// Received blocks are decoded as MessageBlock, this message is only created to send data
+	}
+
+	@Override
+	public void process(Peer peer) {
+	}
+
+	@Override
+	public int getLength() {
+		return 9 + dataLength;
+	}
+
+	@Override
+	public int getId() {
+		return BitTorrent.MESSAGE_PIECE;
+	}
+
+	@Override
+	public void setReadDuration(int duration) {
+	}
+
+	public List<FileRegion> getRegions() {
+		return regions;
+	}
+
+	@Override
+	public String toString() {
+		return "Block";
+	}
+
+}
@@ -0,0 +1,40 @@
+package torrent.download.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MappedStorageTest {
+
+	@Test
+	public void testClose() throws Exception {
+		File file = File.createTempFile("javatorrent", ".tmp");
+		file.deleteOnExit();
+		MappedStorage storage = new MappedStorage(file, 1024);
+
+		byte[] data = { 1, 2, 3, 4 };
+		storage.write(100, data, 0, data.length);
+		storage.close();
+		assertFalse(storage.getChannel().isOpen());
+
+		try {
+			storage.read(100, new byte[data.length], 0, data.length);
+			fail("A closed storage can't be read");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		// The written bytes have made it into the file
+		RandomAccessStorage reopened = new RandomAccessStorage(file);
+		byte[] read = new byte[data.length];
+		reopened.read(100, read, 0, read.length);
+		reopened.close();
+		assertArrayEquals(data, read);
+	}
+
+}
@@ -0,0 +1,83 @@
+package torrent.download.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static torrent.download.files.TestFiles.BLOCK_COUNT;
+import static torrent.download.files.TestFiles.BLOCK_SIZE;
+import static torrent.download.files.TestFiles.PIECE_SIZE;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PieceCacheTest {
+
+	@Test
+	public void testSpillLeastRecentlyUsedPiece() throws Exception {
+		TestFiles files = new TestFiles(3);
+		PieceCache cache = new PieceCache(2 * PIECE_SIZE);
+
+		storeBlock(cache, files, 0, 0);
+		storeBlock(cache, files, 1, 0);
+		// Piece 0 gets used again, which leaves piece 1 as the least recently used
+		storeBlock(cache, files, 0, 1);
+		storeBlock(cache, files, 2, 0);
+
+		assertEquals(2 * PIECE_SIZE, cache.getUsedBytes());
+		assertArrayEquals(files.getBlockData(1, 0), Arrays.copyOf(files.readFromDisk(1), BLOCK_SIZE));
+		assertArrayEquals(new byte[PIECE_SIZE], files.readFromDisk(0));
+		assertArrayEquals(new byte[PIECE_SIZE], files.readFromDisk(2));
+	}
+
+	@Test
+	public void testPartiallySpilledPieceIsCheckedOnDisk() throws Exception {
+		TestFiles files = new TestFiles(2);
+		PieceCache cache = new PieceCache(PIECE_SIZE);
+		Piece piece = files.getPiece(0);
+
+		storeBlock(cache, files, 0, 0);
+		storeBlock(cache, files, 0, 1);
+		// Piece 1 pushes the first half of piece 0 to the disk
+		storeBlock(cache, files, 1, 0);
+		storeBlock(cache, files, 0, 2);
+		storeBlock(cache, files, 0, 3);
+
+		assertTrue(piece.isDone());
+		assertTrue(cache.checkHash(piece));
+		assertArrayEquals(files.getPieceData(0), files.readFromDisk(0));
+		assertEquals(0, cache.getUsedBytes());
+	}
+
+	@Test
+	public void testFailedPieceStaysInMemory() throws Exception {
+		TestFiles files = new TestFiles(1);
+		PieceCache cache = new PieceCache(PIECE_SIZE);
+		Piece piece = files.getPiece(0);
+
+		for (int i = 0; i < BLOCK_COUNT; i++) {
+			byte[] block = files.getBlockData(0, i);
+			if (i == 1) {
+				block[0] ^= 1;
+			}
+			cache.storeBlock(piece, i, block);
+		}
+
+		assertFalse(cache.checkHash(piece));
+		// The faulty piece never reaches the disk and is kept so that only the bad block has to be downloaded again
+		assertEquals(PIECE_SIZE, cache.getUsedBytes());
+		assertArrayEquals(new byte[PIECE_SIZE], files.readFromDisk(0));
+
+		piece.reset(1);
+		storeBlock(cache, files, 0, 1);
+		assertTrue(cache.checkHash(piece));
+		assertArrayEquals(files.getPieceData(0), files.readFromDisk(0));
+		assertEquals(0, cache.getUsedBytes());
+	}
+
+	private static void storeBlock(PieceCache cache, TestFiles files, int pieceIndex, int blockIndex) throws Exception {
+		cache.storeBlock(files.getPiece(pieceIndex), blockIndex, files.getBlockData(pieceIndex, blockIndex));
+	}
+
+}
@@ -0,0 +1,65 @@
+package torrent.download.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import torrent.encoding.SHA1;
+
+public class PieceHasherTest {
+
+	@Test
+	public void testHeldOutOfOrderBlocks() throws Exception {
+		TestFiles files = new TestFiles(1);
+		PieceHasher hasher = new PieceHasher(files.getPiece(0));
+
+		hasher.blockStored(3, files.getBlockData(0, 3));
+		hasher.blockStored(1, files.getBlockData(0, 1));
+		hasher.blockStored(2, files.getBlockData(0, 2));
+		hasher.blockStored(0, files.getBlockData(0, 0));
+
+		// The disk is still empty, so the hash can only match if every block was fed from memory
+		assertArrayEquals(SHA1.hash(files.getPieceData(0)), hasher.digest());
+	}
+
+	@Test
+	public void testResetAfterHashFail() throws Exception {
+		TestFiles files = new TestFiles(1);
+		Piece piece = files.getPiece(0);
+
+		for (int i = 0; i < TestFiles.BLOCK_COUNT; i++) {
+			byte[] block = files.getBlockData(0, i);
+			if (i == 0) {
+				block[0] ^= 1;
+			}
+			piece.storeBlock(i, block);
+		}
+		assertFalse(piece.checkHash());
+
+		// The hash fail resets the first block, the hash has to start over from the new data
+		piece.hashFail();
+		assertFalse(piece.isDone(0));
+		piece.storeBlock(0, files.getBlockData(0, 0));
+		assertTrue(piece.checkHash());
+	}
+
+	@Test
+	public void testBlockStoredTwice() throws Exception {
+		TestFiles files = new TestFiles(1);
+		Piece piece = files.getPiece(0);
+
+		byte[] faultyBlock = files.getBlockData(0, 1);
+		faultyBlock[0] ^= 1;
+		piece.storeBlock(0, files.getBlockData(0, 0));
+		piece.storeBlock(1, faultyBlock);
+		// The block gets overwritten before the piece completes, the faulty data may not stay in the hash
+		piece.storeBlock(1, files.getBlockData(0, 1));
+		piece.storeBlock(2, files.getBlockData(0, 2));
+		piece.storeBlock(3, files.getBlockData(0, 3));
+
+		assertTrue(piece.checkHash());
+	}
+
+}
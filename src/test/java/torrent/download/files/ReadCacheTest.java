@@ -0,0 +1,70 @@
+package torrent.download.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static torrent.download.files.TestFiles.BLOCK_SIZE;
+import static torrent.download.files.TestFiles.PIECE_SIZE;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ReadCacheTest {
+
+	@Test
+	public void testReadSpanningTwoWindows() throws Exception {
+		TestFiles files = new TestFiles(1);
+		files.writeToDisk(0);
+		ReadCache cache = new ReadCache(PIECE_SIZE, BLOCK_SIZE);
+		Piece piece = files.getPiece(0);
+
+		int offset = BLOCK_SIZE - 1000;
+		byte[] expected = Arrays.copyOfRange(files.getPieceData(0), offset, offset + 2000);
+		assertArrayEquals(expected, cache.read(piece, offset, 2000));
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		assertArrayEquals(expected, cache.read(piece, offset, 2000));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testHitAndMissCounts() throws Exception {
+		TestFiles files = new TestFiles(3);
+		for (int i = 0; i < 3; i++) {
+			files.writeToDisk(i);
+		}
+		ReadCache cache = new ReadCache(2 * PIECE_SIZE, 0);
+
+		read(cache, files, 0);
+		read(cache, files, 0);
+		read(cache, files, 1);
+		// Piece 0 is the least recently used and makes room for piece 2
+		read(cache, files, 2);
+		read(cache, files, 1);
+		read(cache, files, 0);
+
+		assertEquals(2, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testWindowLargerThanCapacity() throws Exception {
+		TestFiles files = new TestFiles(1);
+		files.writeToDisk(0);
+		ReadCache cache = new ReadCache(PIECE_SIZE / 2, 0);
+
+		read(cache, files, 0);
+		read(cache, files, 0);
+
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	private static void read(ReadCache cache, TestFiles files, int pieceIndex) throws Exception {
+		byte[] expected = Arrays.copyOfRange(files.getPieceData(pieceIndex), BLOCK_SIZE, 2 * BLOCK_SIZE);
+		assertArrayEquals(expected, cache.read(files.getPiece(pieceIndex), BLOCK_SIZE, BLOCK_SIZE));
+	}
+
+}
@@ -0,0 +1,107 @@
+package torrent.download.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.johnnei.utils.config.Config;
+
+import torrent.download.AFiles;
+import torrent.download.FileInfo;
+import torrent.encoding.SHA1;
+
+/**
+ * A torrent of a single temporary file of which the pieces consist of random data. The file starts out empty, the
+ * tests decide which data gets on the disk.
+ */
+class TestFiles extends AFiles {
+
+	static final int PIECE_SIZE = 64 * 1024;
+
+	static final int BLOCK_SIZE = 16 * 1024;
+
+	static final int BLOCK_COUNT = PIECE_SIZE / BLOCK_SIZE;
+
+	private final byte[] data;
+
+	private final FileInfo fileInfo;
+
+	public TestFiles(int pieceCount) throws IOException {
+		Config.getConfig().setDefault("disk-storage", "mapped");
+		data = new byte[pieceCount * PIECE_SIZE];
+		new Random(pieceCount).nextBytes(data);
+
+		File file = File.createTempFile("javatorrent", ".tmp");
+		file.deleteOnExit();
+		fileInfo = new FileInfo(data.length, 0, file, pieceCount);
+		fileInfos = Collections.singletonList(fileInfo);
+		pieces = new ArrayList<>();
+		for (int i = 0; i < pieceCount; i++) {
+			pieces.add(new Piece(this, SHA1.hash(getPieceData(i)), i, PIECE_SIZE, BLOCK_SIZE));
+		}
+	}
+
+	/**
+	 * Gets the data which the piece should contain
+	 */
+	public byte[] getPieceData(int index) {
+		return Arrays.copyOfRange(data, index * PIECE_SIZE, (index + 1) * PIECE_SIZE);
+	}
+
+	/**
+	 * Gets the data which the block should contain
+	 */
+	public byte[] getBlockData(int pieceIndex, int blockIndex) {
+		int offset = pieceIndex * PIECE_SIZE + blockIndex * BLOCK_SIZE;
+		return Arrays.copyOfRange(data, offset, offset + BLOCK_SIZE);
+	}
+
+	/**
+	 * Reads the piece as it is on the disk
+	 */
+	public byte[] readFromDisk(int index) throws IOException {
+		byte[] piece = new byte[PIECE_SIZE];
+		fileInfo.getStorage().read((long) index * PIECE_SIZE, piece, 0, piece.length);
+		return piece;
+	}
+
+	/**
+	 * Writes the correct data of the piece to the disk
+	 */
+	public void writeToDisk(int index) throws IOException {
+		fileInfo.getStorage().write((long) index * PIECE_SIZE, data, index * PIECE_SIZE, PIECE_SIZE);
+	}
+
+	@Override
+	public boolean hasPiece(int pieceIndex) {
+		return false;
+	}
+
+	@Override
+	public void havePiece(int pieceIndex) {
+	}
+
+	@Override
+	public FileInfo getFileForBytes(int index, int blockIndex, int blockDataOffset) {
+		return fileInfo;
+	}
+
+	@Override
+	public long getPieceSize() {
+		return PIECE_SIZE;
+	}
+
+	@Override
+	public int getBlockSize() {
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	public byte[] getBitfieldBytes() {
+		throw new UnsupportedOperationException();
+	}
+
+}
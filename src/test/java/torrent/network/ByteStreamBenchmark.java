@@ -0,0 +1,107 @@
+package torrent.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the byte counting streams when they are used per byte (as they used to copy the data) and in bulk.<br/>
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=torrent.network.ByteStreamBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteStreamBenchmark {
+
+	/**
+	 * The size of a block message
+	 */
+	@Param({ "16397" })
+	private int messageSize;
+
+	private byte[] message;
+
+	private ByteOutputStream outStream;
+
+	private RateEstimator rateEstimator;
+
+	@Setup
+	public void setUp() {
+		message = new byte[messageSize];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) i;
+		}
+		outStream = new ByteOutputStream(new DiscardingOutputStream());
+		rateEstimator = new RateEstimator(null);
+		outStream.setRateEstimator(rateEstimator);
+	}
+
+	@Benchmark
+	public long writePerByte() throws IOException {
+		for (int i = 0; i < message.length; i++) {
+			outStream.write(message[i]);
+		}
+		return rateEstimator.getTotalBytes();
+	}
+
+	@Benchmark
+	public long writeBulk() throws IOException {
+		outStream.write(message, 0, message.length);
+		return rateEstimator.getTotalBytes();
+	}
+
+	@Benchmark
+	public byte[] readPerByte() throws IOException {
+		ByteInputStream inStream = new ByteInputStream(new ByteArrayInputStream(message));
+		byte[] data = new byte[message.length];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) inStream.read();
+		}
+		return data;
+	}
+
+	@Benchmark
+	public byte[] readBulk() throws IOException {
+		ByteInputStream inStream = new ByteInputStream(new ByteArrayInputStream(message));
+		return inStream.readByteArray(message.length);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ByteStreamBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	/**
+	 * Accepts all data like a socket with an unlimited buffer would
+	 */
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+}
@@ -0,0 +1,182 @@
+package torrent.network.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import torrent.network.Stream;
+import torrent.network.protocol.utp.ConnectionState;
+import torrent.network.protocol.utp.TimingWheel;
+import torrent.network.protocol.utp.UtpPacketFactory;
+import torrent.network.protocol.utp.packet.Packet;
+
+public class UtpSocketTest {
+
+	/**
+	 * The largest uTP packet which the simulated path lets through, the interface MTU is assumed to be 1500
+	 */
+	private static final int PATH_LIMIT = 1000;
+
+	/**
+	 * The amount of bytes which the sender writes before they have been received
+	 */
+	private static final int WRITE_AHEAD = 64 * 1024;
+
+	private TimingWheel timingWheel;
+
+	/**
+	 * The datagrams which are on their way, delivered by the test thread
+	 */
+	private BlockingQueue<Runnable> network;
+
+	private AtomicInteger droppedDatagrams;
+
+	private UtpPacketFactory packetFactory;
+
+	@Before
+	public void setUp() {
+		timingWheel = new TimingWheel();
+		timingWheel.start();
+		network = new LinkedBlockingQueue<>();
+		droppedDatagrams = new AtomicInteger();
+		packetFactory = new UtpPacketFactory();
+	}
+
+	@After
+	public void tearDown() {
+		timingWheel.interrupt();
+	}
+
+	@Test(timeout = 30000)
+	public void testTransferWithSmallPathMtu() throws Exception {
+		TestSocket sender = new TestSocket();
+		TestSocket receiver = new TestSocket();
+		connect(sender, receiver);
+
+		byte[] data = new byte[512 * 1024];
+		new Random(0).nextBytes(data);
+		OutputStream outputStream = sender.getOutputStream();
+		int written = 0;
+
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		InputStream inputStream = receiver.getInputStream();
+		byte[] buffer = new byte[4096];
+		while (received.size() < data.length) {
+			// The packets are cut when the data is written, so keep writing as the window grows
+			if (written < data.length && written - received.size() < WRITE_AHEAD) {
+				int length = Math.min(buffer.length, data.length - written);
+				outputStream.write(data, written, length);
+				written += length;
+			}
+			deliverNext();
+			int read;
+			while ((read = inputStream.read(buffer, 0, buffer.length)) > 0) {
+				received.write(buffer, 0, read);
+			}
+		}
+
+		assertTrue("The probes should have been larger than the path allows", droppedDatagrams.get() > 0);
+		assertArrayEquals(data, received.toByteArray());
+	}
+
+	@Test(timeout = 10000)
+	public void testResentPacketIsNotUsedForRtt() throws Exception {
+		TestSocket sender = new TestSocket();
+		TestSocket receiver = new TestSocket();
+		connect(sender, receiver);
+
+		// The first send gets lost, the retransmission timeout resends it and doubles the timeout
+		sender.datagramsToDrop = 1;
+		sender.getOutputStream().write(new byte[100], 0, 100);
+		while (receiver.getInputStream().available() < 100) {
+			deliverNext();
+		}
+		while (sender.receivedDatagrams == 0) {
+			deliverNext();
+		}
+
+		// The ack can't be matched to either send, so the backed off timeout has to stay (Karn's algorithm)
+		assertEquals(2000, sender.getTimeout());
+	}
+
+	private static void connect(TestSocket sender, TestSocket receiver) {
+		sender.peer = receiver;
+		receiver.peer = sender;
+		// Start close to the wrap around of the sequence numbers
+		sender.setSequenceNumber(0xFFF0);
+		receiver.setUtpInputNumber(0xFFEF);
+		sender.setConnectionState(ConnectionState.CONNECTED);
+		receiver.setConnectionState(ConnectionState.CONNECTED);
+	}
+
+	/**
+	 * Delivers the next datagram which is on its way, waits a short while if there is none
+	 */
+	private void deliverNext() throws InterruptedException {
+		Runnable datagram = network.poll(10, TimeUnit.MILLISECONDS);
+		if (datagram != null) {
+			datagram.run();
+		}
+	}
+
+	private void deliver(TestSocket socket, byte[] datagram) {
+		Packet packet = packetFactory.getFromId((datagram[0] & 0xFF) >>> 4);
+		packet.read(new Stream(datagram));
+		packet.process(socket);
+		socket.receivedDatagrams++;
+	}
+
+	/**
+	 * A socket which sends its datagrams to the other socket over a path which drops everything above {@link #PATH_LIMIT}
+	 */
+	private class TestSocket extends UtpSocket {
+
+		private TestSocket peer;
+
+		/**
+		 * The amount of datagrams which will be dropped regardless of their size
+		 */
+		private int datagramsToDrop;
+
+		/**
+		 * The amount of datagrams which have been delivered to this socket
+		 */
+		private int receivedDatagrams;
+
+		@Override
+		boolean sendDatagram(byte[] data, int length) {
+			if (datagramsToDrop > 0) {
+				datagramsToDrop--;
+				return true;
+			}
+			if (length > PATH_LIMIT) {
+				droppedDatagrams.incrementAndGet();
+				return true;
+			}
+			byte[] datagram = Arrays.copyOf(data, length);
+			network.add(() -> deliver(peer, datagram));
+			return true;
+		}
+
+		@Override
+		TimingWheel getTimingWheel() {
+			return timingWheel;
+		}
+
+	}
+
+}
@@ -0,0 +1,112 @@
+package torrent.network.protocol.utp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import torrent.network.protocol.utp.packet.Packet;
+import torrent.network.protocol.utp.packet.PacketState;
+
+public class InFlightPacketsTest {
+
+	@Test
+	public void testSequenceNumberWrapAround() {
+		InFlightPackets inFlight = new InFlightPackets();
+		List<Packet> packets = addPackets(inFlight, 0xFFFC, 8);
+
+		for (Packet packet : packets) {
+			assertSame(packet, inFlight.get(packet.getSequenceNumber()));
+		}
+		assertSame(packets.get(0), inFlight.getOldest());
+		assertNull(inFlight.get(0xFFFB));
+		assertNull(inFlight.get(0x0004));
+	}
+
+	@Test
+	public void testGrowRing() {
+		InFlightPackets inFlight = new InFlightPackets();
+		// More packets than the initial ring holds, across the wrap around
+		List<Packet> packets = addPackets(inFlight, 0xFF00, 1000);
+
+		for (Packet packet : packets) {
+			assertSame(packet, inFlight.get(packet.getSequenceNumber()));
+		}
+		assertSame(packets.get(0), inFlight.getOldest());
+		assertNull(inFlight.get((0xFF00 + 1000) & 0xFFFF));
+	}
+
+	@Test
+	public void testRemoveOutOfOrder() {
+		InFlightPackets inFlight = new InFlightPackets();
+		List<Packet> packets = addPackets(inFlight, 100, 5);
+
+		// Selectively acked packets in the middle don't move the oldest packet
+		assertSame(packets.get(2), inFlight.remove(102));
+		assertSame(packets.get(3), inFlight.remove(103));
+		assertNull(inFlight.remove(102));
+		assertSame(packets.get(0), inFlight.getOldest());
+
+		// Removing the oldest skips past the packets which have already been removed
+		assertSame(packets.get(0), inFlight.remove(100));
+		assertSame(packets.get(1), inFlight.getOldest());
+		assertSame(packets.get(1), inFlight.remove(101));
+		assertSame(packets.get(4), inFlight.getOldest());
+		assertNull(inFlight.get(102));
+
+		assertSame(packets.get(4), inFlight.remove(104));
+		assertTrue(inFlight.isEmpty());
+		assertNull(inFlight.getOldest());
+	}
+
+	@Test
+	public void testRemoveUpToAcrossWrapAround() {
+		InFlightPackets inFlight = new InFlightPackets();
+		List<Packet> packets = addPackets(inFlight, 0xFFFD, 6);
+
+		// The cumulative ack of sequence number 0 covers the packets 0xFFFD, 0xFFFE, 0xFFFF and 0
+		List<Packet> acked = new ArrayList<>();
+		Packet packet;
+		while ((packet = inFlight.removeUpTo(0)) != null) {
+			acked.add(packet);
+		}
+		assertEquals(4, acked.size());
+		for (int i = 0; i < acked.size(); i++) {
+			assertSame(packets.get(i), acked.get(i));
+		}
+		assertSame(packets.get(4), inFlight.getOldest());
+
+		// An ack before the oldest packet acknowledges nothing
+		assertNull(inFlight.removeUpTo(0xFFFF));
+		assertFalse(inFlight.isEmpty());
+
+		assertSame(packets.get(4), inFlight.removeUpTo(2));
+		assertSame(packets.get(5), inFlight.removeUpTo(2));
+		assertTrue(inFlight.isEmpty());
+	}
+
+	private static List<Packet> addPackets(InFlightPackets inFlight, int firstSequenceNumber, int count) {
+		List<Packet> packets = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Packet packet = new TestPacket((firstSequenceNumber + i) & 0xFFFF);
+			inFlight.add(packet);
+			packets.add(packet);
+		}
+		return packets;
+	}
+
+	private static class TestPacket extends PacketState {
+
+		public TestPacket(int sequenceNumber) {
+			this.sequenceNumber = sequenceNumber;
+		}
+
+	}
+
+}
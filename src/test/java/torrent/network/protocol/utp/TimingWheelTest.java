@@ -0,0 +1,110 @@
+package torrent.network.protocol.utp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.johnnei.utils.ThreadUtils;
+
+public class TimingWheelTest {
+
+	private TimingWheel timingWheel;
+
+	@Before
+	public void setUp() {
+		timingWheel = new TimingWheel();
+		timingWheel.start();
+	}
+
+	@After
+	public void tearDown() {
+		timingWheel.interrupt();
+	}
+
+	@Test
+	public void testTimerMoreThanOneRoundAway() throws Exception {
+		CountDownLatch expired = new CountDownLatch(1);
+		AtomicLong expireTime = new AtomicLong();
+		TimingWheel.Timer timer = timingWheel.newTimer(() -> {
+			expireTime.set(System.nanoTime());
+			expired.countDown();
+		});
+
+		// The wheel covers 512 ms, the bucket of this timer gets visited twice before it is due
+		long start = System.nanoTime();
+		timingWheel.schedule(timer, 1200);
+
+		assertTrue("Timer didn't expire", expired.await(5, TimeUnit.SECONDS));
+		assertTrue("Timer expired early", expireTime.get() - start >= TimeUnit.MILLISECONDS.toNanos(1200));
+	}
+
+	@Test
+	public void testCatchUpAfterLongPause() throws Exception {
+		CountDownLatch expired = new CountDownLatch(3);
+		AtomicLong pauseEnd = new AtomicLong();
+		AtomicLong[] expireTimes = { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+		long[] delays = { 100, 700, 1500 };
+
+		// A task which holds up the wheel for longer than a full round
+		TimingWheel.Timer pause = timingWheel.newTimer(() -> {
+			ThreadUtils.sleep(800);
+			pauseEnd.set(System.nanoTime());
+		});
+
+		long start = System.nanoTime();
+		timingWheel.schedule(pause, 5);
+		for (int i = 0; i < delays.length; i++) {
+			AtomicLong expireTime = expireTimes[i];
+			timingWheel.schedule(timingWheel.newTimer(() -> {
+				expireTime.set(System.nanoTime());
+				expired.countDown();
+			}), delays[i]);
+		}
+
+		assertTrue("Timers didn't expire", expired.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < delays.length; i++) {
+			assertTrue("Timer expired early", expireTimes[i].get() - start >= TimeUnit.MILLISECONDS.toNanos(delays[i]));
+		}
+		// The timers which became due during the pause run right after it, not a round later
+		assertTrue("Timer wasn't caught up", expireTimes[0].get() - pauseEnd.get() < TimeUnit.MILLISECONDS.toNanos(200));
+		assertTrue("Timer wasn't caught up", expireTimes[1].get() - pauseEnd.get() < TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void testCancelAndReschedule() throws Exception {
+		AtomicInteger cancelledRuns = new AtomicInteger();
+		TimingWheel.Timer cancelled = timingWheel.newTimer(cancelledRuns::incrementAndGet);
+		timingWheel.schedule(cancelled, 50);
+		timingWheel.cancel(cancelled);
+		// Cancelling a timer which isn't scheduled does nothing
+		timingWheel.cancel(cancelled);
+
+		AtomicInteger rescheduledRuns = new AtomicInteger();
+		CountDownLatch expired = new CountDownLatch(1);
+		TimingWheel.Timer rescheduled = timingWheel.newTimer(() -> {
+			rescheduledRuns.incrementAndGet();
+			expired.countDown();
+		});
+		long start = System.nanoTime();
+		timingWheel.schedule(rescheduled, 2000);
+		timingWheel.schedule(rescheduled, 50);
+
+		assertTrue("Timer didn't expire", expired.await(1, TimeUnit.SECONDS));
+		assertTrue("Timer kept its old deadline", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+
+		// A timer which expired can be scheduled again
+		timingWheel.schedule(rescheduled, 20);
+		ThreadUtils.sleep(300);
+		assertEquals(0, cancelledRuns.get());
+		assertEquals(2, rescheduledRuns.get());
+	}
+
+}
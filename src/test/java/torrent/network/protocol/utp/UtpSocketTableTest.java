@@ -0,0 +1,176 @@
+package torrent.network.protocol.utp;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import torrent.network.protocol.UtpSocket;
+
+public class UtpSocketTableTest {
+
+	private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 6881);
+
+	private static final InetSocketAddress OTHER_ADDRESS = new InetSocketAddress("127.0.0.2", 6881);
+
+	private static final int MASK = UtpSocketTable.INITIAL_CAPACITY - 1;
+
+	@Test
+	public void testRemoveCollidingEntry() {
+		List<Integer> ids = findIdsWithHomeSlot(10, 4);
+		UtpSocketTable table = new UtpSocketTable();
+		List<UtpSocket> sockets = new ArrayList<>();
+		for (int id : ids) {
+			UtpSocket socket = createSocket(ADDRESS, id);
+			sockets.add(socket);
+			table.put(socket);
+		}
+
+		// Removing the head of the probe sequence must shift the others back
+		table.remove(sockets.get(0));
+		assertNull(table.get(ADDRESS, ids.get(0)));
+		for (int i = 1; i < ids.size(); i++) {
+			assertSame(sockets.get(i), table.get(ADDRESS, ids.get(i)));
+		}
+
+		// Removing from the middle of the probe sequence
+		table.remove(sockets.get(2));
+		assertNull(table.get(ADDRESS, ids.get(2)));
+		assertSame(sockets.get(1), table.get(ADDRESS, ids.get(1)));
+		assertSame(sockets.get(3), table.get(ADDRESS, ids.get(3)));
+	}
+
+	@Test
+	public void testRemoveAcrossWrapAround() {
+		// Three entries which start in the last slot wrap to the start of the table
+		List<Integer> lastSlotIds = findIdsWithHomeSlot(MASK, 3);
+		int firstSlotId = findIdsWithHomeSlot(0, 1).get(0);
+		UtpSocketTable table = new UtpSocketTable();
+		List<UtpSocket> sockets = new ArrayList<>();
+		for (int id : lastSlotIds) {
+			UtpSocket socket = createSocket(ADDRESS, id);
+			sockets.add(socket);
+			table.put(socket);
+		}
+		UtpSocket firstSlotSocket = createSocket(ADDRESS, firstSlotId);
+		table.put(firstSlotSocket);
+
+		table.remove(sockets.get(0));
+		assertNull(table.get(ADDRESS, lastSlotIds.get(0)));
+		assertSame(sockets.get(1), table.get(ADDRESS, lastSlotIds.get(1)));
+		assertSame(sockets.get(2), table.get(ADDRESS, lastSlotIds.get(2)));
+		assertSame(firstSlotSocket, table.get(ADDRESS, firstSlotId));
+
+		table.remove(sockets.get(1));
+		assertSame(sockets.get(2), table.get(ADDRESS, lastSlotIds.get(2)));
+		assertSame(firstSlotSocket, table.get(ADDRESS, firstSlotId));
+	}
+
+	@Test
+	public void testResize() {
+		UtpSocketTable table = new UtpSocketTable();
+		List<UtpSocket> sockets = new ArrayList<>();
+		for (int id = 0; id < UtpSocketTable.INITIAL_CAPACITY * 4; id++) {
+			UtpSocket socket = createSocket(ADDRESS, id);
+			sockets.add(socket);
+			table.put(socket);
+		}
+
+		for (int id = 0; id < sockets.size(); id++) {
+			assertSame(sockets.get(id), table.get(ADDRESS, id));
+		}
+
+		for (int id = 0; id < sockets.size(); id += 2) {
+			table.remove(sockets.get(id));
+		}
+
+		for (int id = 0; id < sockets.size(); id++) {
+			if (id % 2 == 0) {
+				assertNull(table.get(ADDRESS, id));
+			} else {
+				assertSame(sockets.get(id), table.get(ADDRESS, id));
+			}
+		}
+	}
+
+	@Test
+	public void testHighConnectionIds() {
+		UtpSocketTable table = new UtpSocketTable();
+		UtpSocket lowest = createSocket(ADDRESS, 0x8000);
+		UtpSocket highest = createSocket(ADDRESS, 0xFFFF);
+		table.put(lowest);
+		table.put(highest);
+
+		assertSame(lowest, table.get(ADDRESS, 0x8000));
+		assertSame(highest, table.get(ADDRESS, 0xFFFF));
+		assertNull(table.get(ADDRESS, 0x7FFF));
+		assertNull(table.get(OTHER_ADDRESS, 0xFFFF));
+
+		table.remove(lowest);
+		assertNull(table.get(ADDRESS, 0x8000));
+		assertSame(highest, table.get(ADDRESS, 0xFFFF));
+	}
+
+	@Test
+	public void testReplaceSameKey() {
+		UtpSocketTable table = new UtpSocketTable();
+		UtpSocket first = createSocket(ADDRESS, 42);
+		UtpSocket second = createSocket(ADDRESS, 42);
+		table.put(first);
+		table.put(second);
+
+		assertSame(second, table.get(ADDRESS, 42));
+		table.remove(first);
+		assertSame(second, table.get(ADDRESS, 42));
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(0);
+		UtpSocketTable table = new UtpSocketTable();
+		Map<Integer, UtpSocket> expected = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			// A small id range so that removes and collisions are frequent
+			int id = random.nextInt(300) * 223 & 0xFFFF;
+			if (random.nextBoolean()) {
+				UtpSocket socket = createSocket(ADDRESS, id);
+				table.put(socket);
+				expected.put(id, socket);
+			} else if (expected.containsKey(id)) {
+				table.remove(expected.remove(id));
+			}
+
+			int lookup = random.nextInt(300) * 223 & 0xFFFF;
+			assertSame(expected.get(lookup), table.get(ADDRESS, lookup));
+		}
+	}
+
+	private static List<Integer> findIdsWithHomeSlot(int slot, int count) {
+		List<Integer> ids = new ArrayList<>();
+		for (int id = 0; ids.size() < count; id++) {
+			if ((UtpSocketTable.hash(ADDRESS, id) & MASK) == slot) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	private static UtpSocket createSocket(InetSocketAddress address, int connectionId) {
+		UtpSocket socket = new UtpSocket() {
+			@Override
+			public InetSocketAddress getSocketAddress() {
+				return address;
+			}
+		};
+		socket.getPeerClient().setConnectionId(connectionId);
+		return socket;
+	}
+
+}
@@ -0,0 +1,130 @@
+package torrent.protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import torrent.network.InStream;
+import torrent.network.OutStream;
+import torrent.protocol.messages.MessageBitfield;
+import torrent.protocol.messages.MessageBlock;
+import torrent.protocol.messages.MessageCancel;
+import torrent.protocol.messages.MessageChoke;
+import torrent.protocol.messages.MessageHave;
+import torrent.protocol.messages.MessageInterested;
+import torrent.protocol.messages.MessageKeepAlive;
+import torrent.protocol.messages.MessageRequest;
+import torrent.protocol.messages.MessageUnchoke;
+import torrent.protocol.messages.MessageUninterested;
+
+/**
+ * Compares the table driven message decoder with the reflective decoder which it replaced.<br/>
+ * The input is the message mix of a peer connection during a download: mostly haves, requests and blocks with the
+ * occasional state change and keep-alive.<br/>
+ * Run with: <code>mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=torrent.protocol.MessageDecodeBenchmark</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDecodeBenchmark {
+	
+	/**
+	 * The size of the blocks in the mix, kept small so that copying the payload doesn't hide the decoding cost
+	 */
+	private static final int BLOCK_SIZE = 64;
+	
+	/**
+	 * The encoded messages including their length prefix
+	 */
+	private byte[][] messages;
+	
+	/**
+	 * The lookup table of the reflective decoder
+	 */
+	private HashMap<Integer, IMessage> idToMessage;
+	
+	@Setup
+	public void setUp() {
+		List<IMessage> mix = new ArrayList<>();
+		mix.add(new MessageBitfield(new byte[128]));
+		mix.add(new MessageInterested());
+		mix.add(new MessageUnchoke());
+		for (int piece = 0; piece < 64; piece++) {
+			mix.add(new MessageHave(piece));
+			for (int block = 0; block < 4; block++) {
+				mix.add(new MessageRequest(piece, block * BLOCK_SIZE, BLOCK_SIZE));
+				mix.add(new MessageBlock(piece, block * BLOCK_SIZE, new byte[BLOCK_SIZE]));
+			}
+			
+			if (piece % 16 == 0) {
+				mix.add(new MessageKeepAlive());
+				mix.add(new MessageCancel(piece, 0, BLOCK_SIZE));
+				mix.add(new MessageChoke());
+				mix.add(new MessageUnchoke());
+			}
+		}
+		mix.add(new MessageUninterested());
+		
+		messages = new byte[mix.size()][];
+		for (int i = 0; i < messages.length; i++) {
+			IMessage message = mix.get(i);
+			OutStream outStream = new OutStream(message.getLength() + 4);
+			MessageUtils.getUtils().writeMessage(outStream, message);
+			messages[i] = outStream.toByteArray();
+		}
+		
+		idToMessage = new HashMap<>();
+		for (IMessage message : new IMessage[] { new MessageChoke(), new MessageUnchoke(), new MessageInterested(), new MessageUninterested(), new MessageHave(), new MessageBitfield(), new MessageRequest(), new MessageBlock(), new MessageCancel() }) {
+			idToMessage.put(message.getId(), message);
+		}
+	}
+	
+	@Benchmark
+	public void decodeTable(Blackhole blackhole) throws IOException {
+		MessageUtils utils = MessageUtils.getUtils();
+		for (byte[] message : messages) {
+			blackhole.consume(utils.readMessage(new InStream(message), 0));
+		}
+	}
+	
+	@Benchmark
+	public void decodeReflective(Blackhole blackhole) throws Exception {
+		for (byte[] message : messages) {
+			InStream stream = new InStream(message);
+			if (stream.readInt() == 0) {
+				blackhole.consume(new MessageKeepAlive());
+				continue;
+			}
+			
+			IMessage decoded = idToMessage.get((int) stream.readByte()).getClass().newInstance();
+			decoded.setReadDuration(0);
+			decoded.read(stream);
+			blackhole.consume(decoded);
+		}
+	}
+	
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(MessageDecodeBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}